@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// a function declared by a FUNCTION node of an AstArena, run by the ArenaInterpreter
+class ArenaFunction extends LoxFunction {
+    private final AstArena arena;
+    private final int declaration;
+
+    ArenaFunction(AstArena arena, int declaration, Environment closure, boolean isInitializer) {
+        super(null, closure, isInitializer);
+        this.arena = arena;
+        this.declaration = declaration;
+    }
+
+    @Override
+    LoxFunction bind(LoxInstance instance) {
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
+        return new ArenaFunction(arena, declaration, environment, isInitializer);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + arena.lexeme(arena.field(declaration, AstArena.FUNCTION_NAME)) + ">";
+    }
+
+    @Override
+    public int arity() {
+        return arena.listSize(arena.field(declaration, AstArena.FUNCTION_PARAMS));
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguements) {
+        int params = arena.field(declaration, AstArena.FUNCTION_PARAMS);
+        Environment environment = new Environment(closure);
+        for (int i = 0; i < arena.listSize(params); i++) {
+            environment.define(arena.lexeme(arena.listItem(params, i)), arguements.get(i));
+        }
+
+        try {
+            ((ArenaInterpreter) interpreter).executeBlock(arena.field(declaration, AstArena.FUNCTION_BODY), environment);
+        } catch (Return returnValue) {
+            if (isInitializer) return closure.getAt(0, "this");
+            return returnValue.value;
+        }
+
+        if (isInitializer) return closure.getAt(0, "this");
+        return null;
+    }
+}
@@ -0,0 +1,265 @@
+// Interpreter loop over the flat AstArena form, using the depths computed by ArenaResolver.
+// Runtime values (environments, functions, classes, instances) and operator semantics are shared with Interpreter.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.AstArena.*;
+
+class ArenaInterpreter extends Interpreter {
+    private final AstArena arena;
+    private final int[] depths;
+    private Environment frame = globals;
+    // tokens are only rebuilt once, for lookups and error reporting
+    private final Token[] tokens;
+
+    ArenaInterpreter(RunContext context, AstArena arena, int[] depths) {
+        super(context);
+        this.arena = arena;
+        this.depths = depths;
+        this.tokens = new Token[arena.tokenTypes.length];
+    }
+
+    // (two tasks rebuilding the same token is harmless, either copy will do)
+    private ArenaInterpreter(ArenaInterpreter parent) {
+        super(parent);
+        this.arena = parent.arena;
+        this.depths = parent.depths;
+        this.tokens = parent.tokens;
+    }
+
+    @Override
+    Interpreter fork() {
+        return new ArenaInterpreter(this);
+    }
+
+    void run() {
+        try {
+            int program = arena.program;
+            for (int i = 0; i < arena.listSize(program); i++) {
+                execute(arena.listItem(program, i));
+            }
+        } catch (RuntimeError error) {
+            context.runtimeError(error);
+        }
+    }
+
+    private Token token(int index) {
+        if (index < 0) return null;
+        if (tokens[index] == null) tokens[index] = arena.token(index);
+        return tokens[index];
+    }
+
+    void executeBlock(int list, Environment environment) {
+        Environment previous = frame;
+        try {
+            frame = environment;
+            for (int i = 0; i < arena.listSize(list); i++) {
+                execute(arena.listItem(list, i));
+            }
+        } finally {
+            frame = previous;
+        }
+    }
+
+    private void execute(int node) {
+        switch (arena.kind(node)) {
+            case BLOCK:
+                executeBlock(arena.field(node, BLOCK_STATEMENTS), new Environment(frame));
+                break;
+
+            case CLASS:
+                declareClass(node);
+                break;
+
+            case EXPRESSION:
+                evaluate(arena.field(node, EXPRESSION_EXPRESSION));
+                break;
+
+            case FUNCTION:
+                frame.define(arena.lexeme(arena.field(node, FUNCTION_NAME)), new ArenaFunction(arena, node, frame, false));
+                break;
+
+            case IF:
+                if (isTruthy(evaluate(arena.field(node, IF_CONDITION)))) {
+                    execute(arena.field(node, IF_THEN_BRANCH));
+                } else if (arena.field(node, IF_ELSE_BRANCH) >= 0) {
+                    execute(arena.field(node, IF_ELSE_BRANCH));
+                }
+                break;
+
+            case PRINT:
+                context.out.println(stringify(evaluate(arena.field(node, PRINT_EXPRESSION))));
+                break;
+
+            case RETURN: {
+                int value = arena.field(node, RETURN_VALUE);
+                throw new Return(value >= 0 ? evaluate(value) : null);
+            }
+
+            case VAR: {
+                int initializer = arena.field(node, VAR_INITIALIZER);
+                Object value = initializer >= 0 ? evaluate(initializer) : null;
+                Token name = token(arena.field(node, VAR_NAME));
+                checkNotBuiltIn(name);
+                frame.define(name.lexeme, value);
+                break;
+            }
+
+            case WHILE: {
+                int condition = arena.field(node, WHILE_CONDITION);
+                int body = arena.field(node, WHILE_BODY);
+                while (isTruthy(evaluate(condition))) {
+                    execute(body);
+                }
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Not a statement node: " + node);
+        }
+    }
+
+    private void declareClass(int node) {
+        Token name = token(arena.field(node, CLASS_NAME));
+        int superclassNode = arena.field(node, CLASS_SUPERCLASS);
+
+        Object superclass = null;
+        if (superclassNode >= 0) {
+            superclass = evaluate(superclassNode);
+            if (!(superclass instanceof LoxClass)) {
+                throw new RuntimeError(token(arena.field(superclassNode, VARIABLE_NAME)), "Superclass must be a class.");
+            }
+        }
+
+        frame.define(name.lexeme, null);
+
+        if (superclass != null) {
+            frame = new Environment(frame);
+            frame.define("super", superclass);
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        int list = arena.field(node, CLASS_METHODS);
+        for (int i = 0; i < arena.listSize(list); i++) {
+            int method = arena.listItem(list, i);
+            String methodName = arena.lexeme(arena.field(method, FUNCTION_NAME));
+            methods.put(methodName, new ArenaFunction(arena, method, frame, methodName.equals("init")));
+        }
+
+        LoxClass klass = new LoxClass(name.lexeme, (LoxClass) superclass, methods);
+
+        if (superclass != null) {
+            frame = frame.enclosing;
+        }
+
+        frame.assign(name, klass);
+    }
+
+    private Object evaluate(int node) {
+        switch (arena.kind(node)) {
+            case ASSIGN: {
+                Object value = evaluate(arena.field(node, ASSIGN_VALUE));
+                Token name = token(arena.field(node, ASSIGN_NAME));
+                if (depths[node] >= 0) {
+                    if (confinedTo >= 0) checkConfined(frame.ancestor(depths[node]), name);
+                    frame.assignAt(depths[node], name, value);
+                } else {
+                    if (confinedTo >= 0) checkConfined(globals, name);
+                    globals.assign(name, value);
+                }
+                return value;
+            }
+
+            case BINARY: {
+                Object left = evaluate(arena.field(node, BINARY_LEFT));
+                Object right = evaluate(arena.field(node, BINARY_RIGHT));
+                return binaryOperation(token(arena.field(node, BINARY_OPERATOR)), left, right);
+            }
+
+            case TERNARY:
+                if (isTruthy(evaluate(arena.field(node, TERNARY_CONDITION)))) {
+                    execute(arena.field(node, TERNARY_TRUE_CASE));
+                } else {
+                    execute(arena.field(node, TERNARY_FALSE_CASE));
+                }
+                return null;
+
+            case CALL: {
+                Object callee = evaluate(arena.field(node, CALL_CALLEE));
+                int list = arena.field(node, CALL_ARGUMENTS);
+                List<Object> arguments = new ArrayList<>(arena.listSize(list));
+                for (int i = 0; i < arena.listSize(list); i++) {
+                    arguments.add(evaluate(arena.listItem(list, i)));
+                }
+                return call(callee, arguments, token(arena.field(node, CALL_PAREN)));
+            }
+
+            case GET:
+                return getProperty(evaluate(arena.field(node, GET_OBJECT)), token(arena.field(node, GET_NAME)));
+
+            case GROUPING:
+                return evaluate(arena.field(node, GROUPING_EXPRESSION));
+
+            case LITERAL:
+                return arena.constants[arena.field(node, LITERAL_VALUE)];
+
+            case LOGICAL: {
+                Object left = evaluate(arena.field(node, LOGICAL_LEFT));
+                if (token(arena.field(node, LOGICAL_OPERATOR)).type == TokenType.OR) {
+                    if (isTruthy(left)) return left;
+                } else {
+                    if (!isTruthy(left)) return left;
+                }
+                return evaluate(arena.field(node, LOGICAL_RIGHT));
+            }
+
+            case SET: {
+                Object object = evaluate(arena.field(node, SET_OBJECT));
+                Token name = token(arena.field(node, SET_NAME));
+                if (!(object instanceof LoxInstance)) {
+                    throw new RuntimeError(name, "Only instances have fields");
+                }
+                Object value = evaluate(arena.field(node, SET_VALUE));
+                if (confinedTo >= 0) checkConfined((LoxInstance) object, name);
+                ((LoxInstance) object).set(name, value);
+                return value;
+            }
+
+            case SUPER: {
+                int distance = depths[node];
+                LoxClass superclass = (LoxClass) frame.getAt(distance, "super");
+                LoxInstance object = (LoxInstance) frame.getAt(distance - 1, "this");
+                Token method = token(arena.field(node, SUPER_METHOD));
+                LoxFunction function = superclass.findMethod(method.lexeme);
+                if (function == null) {
+                    throw new RuntimeError(method, "undefined property '" + method.lexeme + "' .");
+                }
+                return function.bind(object);
+            }
+
+            case THIS:
+                return lookUp(node, arena.field(node, THIS_KEYWORD));
+
+            case UNARY:
+                return unaryOperation(token(arena.field(node, UNARY_OPERATOR)), evaluate(arena.field(node, UNARY_RIGHT)));
+
+            case VARIABLE:
+                return lookUp(node, arena.field(node, VARIABLE_NAME));
+
+            default:
+                throw new IllegalStateException("Not an expression node: " + node);
+        }
+    }
+
+    private Object lookUp(int node, int name) {
+        if (depths[node] >= 0) {
+            return frame.getAt(depths[node], arena.lexeme(name));
+        }
+        return globals.get(token(name));
+    }
+}
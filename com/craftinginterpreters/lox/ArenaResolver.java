@@ -0,0 +1,289 @@
+// Resolver over the flat AstArena form: the same scope rules and errors as Resolver, with the resolved
+// depth of every variable/assignment/this/super node stored in an int[] indexed by node offset.
+
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+
+import static com.craftinginterpreters.lox.AstArena.*;
+
+class ArenaResolver {
+    private final AstArena arena;
+    private final RunContext context;
+    // -1 for globals
+    private final int[] depths;
+    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+
+    private enum FunctionType {
+        NONE, FUNCTION, INITIALIZER, METHOD
+    }
+
+    private enum ClassType {
+        NONE, CLASS, SUBCLASS
+    }
+
+    ArenaResolver(RunContext context, AstArena arena) {
+        this.context = context;
+        this.arena = arena;
+        this.depths = new int[arena.nodes.length];
+        Arrays.fill(depths, -1);
+    }
+
+    int[] resolve() {
+        resolveStatements(arena.program);
+        return depths;
+    }
+
+    private void resolveStatements(int list) {
+        for (int i = 0; i < arena.listSize(list); i++) {
+            resolveStmt(arena.listItem(list, i));
+        }
+    }
+
+    private void resolveStmt(int node) {
+        if (node < 0) return;
+        switch (arena.kind(node)) {
+            case BLOCK:
+                beginScope();
+                resolveStatements(arena.field(node, BLOCK_STATEMENTS));
+                endScope();
+                break;
+
+            case CLASS:
+                resolveClass(node);
+                break;
+
+            case EXPRESSION:
+                resolveExpr(arena.field(node, EXPRESSION_EXPRESSION));
+                break;
+
+            case FUNCTION:
+                declare(arena.field(node, FUNCTION_NAME));
+                define(arena.field(node, FUNCTION_NAME));
+                resolveFunction(node, FunctionType.FUNCTION);
+                break;
+
+            case IF:
+                resolveExpr(arena.field(node, IF_CONDITION));
+                resolveStmt(arena.field(node, IF_THEN_BRANCH));
+                resolveStmt(arena.field(node, IF_ELSE_BRANCH));
+                break;
+
+            case PRINT:
+                resolveExpr(arena.field(node, PRINT_EXPRESSION));
+                break;
+
+            case RETURN: {
+                int keyword = arena.field(node, RETURN_KEYWORD);
+                if (currentFunction == FunctionType.NONE) {
+                    context.error(arena.token(keyword), "Can't return from top-level code.");
+                }
+                int value = arena.field(node, RETURN_VALUE);
+                if (value >= 0) {
+                    if (currentFunction == FunctionType.INITIALIZER) {
+                        context.error(arena.token(keyword), "Can't return a value from an initializer.");
+                    }
+                    resolveExpr(value);
+                }
+                break;
+            }
+
+            case VAR:
+                declare(arena.field(node, VAR_NAME));
+                resolveExpr(arena.field(node, VAR_INITIALIZER));
+                define(arena.field(node, VAR_NAME));
+                break;
+
+            case WHILE:
+                resolveExpr(arena.field(node, WHILE_CONDITION));
+                resolveStmt(arena.field(node, WHILE_BODY));
+                break;
+
+            default:
+                throw new IllegalStateException("Not a statement node: " + node);
+        }
+    }
+
+    private void resolveClass(int node) {
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+
+        int name = arena.field(node, CLASS_NAME);
+        declare(name);
+        define(name);
+
+        int superclass = arena.field(node, CLASS_SUPERCLASS);
+        if (superclass >= 0) {
+            int superName = arena.field(superclass, VARIABLE_NAME);
+            if (arena.lexeme(name).equals(arena.lexeme(superName))) {
+                context.error(arena.token(superName), "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolveExpr(superclass);
+
+            beginScope();
+            scopes.peek().put("super", true);
+        }
+
+        beginScope();
+        scopes.peek().put("this", true);
+
+        int methods = arena.field(node, CLASS_METHODS);
+        for (int i = 0; i < arena.listSize(methods); i++) {
+            int method = arena.listItem(methods, i);
+            FunctionType declaration = FunctionType.METHOD;
+            if (arena.lexeme(arena.field(method, FUNCTION_NAME)).equals("init")) {
+                declaration = FunctionType.INITIALIZER;
+            }
+            resolveFunction(method, declaration);
+        }
+
+        endScope();
+        if (superclass >= 0) endScope();
+
+        currentClass = enclosingClass;
+    }
+
+    private void resolveFunction(int node, FunctionType type) {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = type;
+
+        beginScope();
+        int params = arena.field(node, FUNCTION_PARAMS);
+        for (int i = 0; i < arena.listSize(params); i++) {
+            declare(arena.listItem(params, i));
+            define(arena.listItem(params, i));
+        }
+        resolveStatements(arena.field(node, FUNCTION_BODY));
+        endScope();
+
+        currentFunction = enclosingFunction;
+    }
+
+    private void resolveExpr(int node) {
+        if (node < 0) return;
+        switch (arena.kind(node)) {
+            case ASSIGN:
+                resolveExpr(arena.field(node, ASSIGN_VALUE));
+                resolveLocal(node, arena.field(node, ASSIGN_NAME));
+                break;
+
+            case BINARY:
+                resolveExpr(arena.field(node, BINARY_LEFT));
+                resolveExpr(arena.field(node, BINARY_RIGHT));
+                break;
+
+            case TERNARY:
+                resolveExpr(arena.field(node, TERNARY_CONDITION));
+                resolveStmt(arena.field(node, TERNARY_TRUE_CASE));
+                resolveStmt(arena.field(node, TERNARY_FALSE_CASE));
+                break;
+
+            case CALL: {
+                resolveExpr(arena.field(node, CALL_CALLEE));
+                int arguments = arena.field(node, CALL_ARGUMENTS);
+                for (int i = 0; i < arena.listSize(arguments); i++) {
+                    resolveExpr(arena.listItem(arguments, i));
+                }
+                break;
+            }
+
+            case GET:
+                resolveExpr(arena.field(node, GET_OBJECT));
+                break;
+
+            case GROUPING:
+                resolveExpr(arena.field(node, GROUPING_EXPRESSION));
+                break;
+
+            case LITERAL:
+                break;
+
+            case LOGICAL:
+                resolveExpr(arena.field(node, LOGICAL_LEFT));
+                resolveExpr(arena.field(node, LOGICAL_RIGHT));
+                break;
+
+            case SET:
+                resolveExpr(arena.field(node, SET_VALUE));
+                resolveExpr(arena.field(node, SET_OBJECT));
+                break;
+
+            case SUPER: {
+                int keyword = arena.field(node, SUPER_KEYWORD);
+                if (currentClass == ClassType.NONE) {
+                    context.error(arena.token(keyword), "Can't use 'super' outside of a class");
+                } else if (currentClass != ClassType.SUBCLASS) {
+                    context.error(arena.token(keyword), "Can't use 'super' in a class with no superclass.");
+                }
+                resolveLocal(node, keyword);
+                break;
+            }
+
+            case THIS: {
+                int keyword = arena.field(node, THIS_KEYWORD);
+                if (currentClass == ClassType.NONE) {
+                    context.error(arena.token(keyword), "Can't use 'this' outside of a class");
+                    break;
+                }
+                resolveLocal(node, keyword);
+                break;
+            }
+
+            case UNARY:
+                resolveExpr(arena.field(node, UNARY_RIGHT));
+                break;
+
+            case VARIABLE: {
+                int name = arena.field(node, VARIABLE_NAME);
+                if (!scopes.isEmpty() && scopes.peek().get(arena.lexeme(name)) == Boolean.FALSE) {
+                    context.error(arena.token(name), "Can't read local variable in its own initializer.");
+                }
+                resolveLocal(node, name);
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Not an expression node: " + node);
+        }
+    }
+
+    private void beginScope() {
+        scopes.push(new HashMap<String, Boolean>());
+    }
+
+    private void endScope() {
+        scopes.pop();
+    }
+
+    private void declare(int name) {
+        if (scopes.isEmpty())
+            return;
+
+        Map<String, Boolean> scope = scopes.peek();
+        if (scope.containsKey(arena.lexeme(name))) {
+            context.error(arena.token(name), "Already a variable with this name in this scope");
+        }
+        scope.put(arena.lexeme(name), false);
+    }
+
+    private void define(int name) {
+        if (scopes.isEmpty())
+            return;
+        scopes.peek().put(arena.lexeme(name), true);
+    }
+
+    private void resolveLocal(int node, int name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey(arena.lexeme(name))) {
+                depths[node] = scopes.size() - 1 - i;
+                return;
+            }
+        }
+    }
+}
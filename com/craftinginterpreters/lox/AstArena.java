@@ -0,0 +1,497 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// flat form of a program: node kinds, child indices and constants in primitive arrays
+final class AstArena {
+    static final int ASSIGN = 0;
+    static final int BINARY = 1;
+    static final int TERNARY = 2;
+    static final int CALL = 3;
+    static final int GET = 4;
+    static final int GROUPING = 5;
+    static final int LITERAL = 6;
+    static final int LOGICAL = 7;
+    static final int SET = 8;
+    static final int SUPER = 9;
+    static final int THIS = 10;
+    static final int UNARY = 11;
+    static final int VARIABLE = 12;
+    static final int BLOCK = 13;
+    static final int CLASS = 14;
+    static final int EXPRESSION = 15;
+    static final int FUNCTION = 16;
+    static final int IF = 17;
+    static final int PRINT = 18;
+    static final int RETURN = 19;
+    static final int VAR = 20;
+    static final int WHILE = 21;
+
+    static final int ASSIGN_NAME = 0;
+    static final int ASSIGN_VALUE = 1;
+    static final int BINARY_LEFT = 0;
+    static final int BINARY_OPERATOR = 1;
+    static final int BINARY_RIGHT = 2;
+    static final int TERNARY_CONDITION = 0;
+    static final int TERNARY_QUESTION_MARK = 1;
+    static final int TERNARY_TRUE_CASE = 2;
+    static final int TERNARY_COLON = 3;
+    static final int TERNARY_FALSE_CASE = 4;
+    static final int CALL_CALLEE = 0;
+    static final int CALL_PAREN = 1;
+    static final int CALL_ARGUMENTS = 2;
+    static final int GET_OBJECT = 0;
+    static final int GET_NAME = 1;
+    static final int GROUPING_EXPRESSION = 0;
+    static final int LITERAL_VALUE = 0;
+    static final int LOGICAL_LEFT = 0;
+    static final int LOGICAL_OPERATOR = 1;
+    static final int LOGICAL_RIGHT = 2;
+    static final int SET_OBJECT = 0;
+    static final int SET_NAME = 1;
+    static final int SET_VALUE = 2;
+    static final int SUPER_KEYWORD = 0;
+    static final int SUPER_METHOD = 1;
+    static final int THIS_KEYWORD = 0;
+    static final int UNARY_OPERATOR = 0;
+    static final int UNARY_RIGHT = 1;
+    static final int VARIABLE_NAME = 0;
+    static final int BLOCK_STATEMENTS = 0;
+    static final int CLASS_NAME = 0;
+    static final int CLASS_SUPERCLASS = 1;
+    static final int CLASS_METHODS = 2;
+    static final int EXPRESSION_EXPRESSION = 0;
+    static final int EXPRESSION_DISPLAY = 1;
+    static final int FUNCTION_NAME = 0;
+    static final int FUNCTION_PARAMS = 1;
+    static final int FUNCTION_BODY = 2;
+    static final int IF_CONDITION = 0;
+    static final int IF_THEN_BRANCH = 1;
+    static final int IF_ELSE_BRANCH = 2;
+    static final int PRINT_EXPRESSION = 0;
+    static final int RETURN_KEYWORD = 0;
+    static final int RETURN_VALUE = 1;
+    static final int VAR_NAME = 0;
+    static final int VAR_INITIALIZER = 1;
+    static final int WHILE_CONDITION = 0;
+    static final int WHILE_BODY = 1;
+
+    // kind at nodes[node], then the fields; children, tokens, lists and constants are indices
+    final int[] nodes;
+    // length followed by the elements
+    final int[] lists;
+    final byte[] tokenTypes;
+    final int[] tokenLexemes;
+    final int[] tokenLiterals;
+    final int[] tokenLines;
+    final String[] strings;
+    final Object[] constants;
+    // list of the top-level statements
+    final int program;
+
+    AstArena(int[] nodes, int[] lists, byte[] tokenTypes, int[] tokenLexemes, int[] tokenLiterals,
+            int[] tokenLines, String[] strings, Object[] constants, int program) {
+        this.nodes = nodes;
+        this.lists = lists;
+        this.tokenTypes = tokenTypes;
+        this.tokenLexemes = tokenLexemes;
+        this.tokenLiterals = tokenLiterals;
+        this.tokenLines = tokenLines;
+        this.strings = strings;
+        this.constants = constants;
+        this.program = program;
+    }
+
+    int kind(int node) {
+        return nodes[node];
+    }
+
+    int field(int node, int field) {
+        return nodes[node + 1 + field];
+    }
+
+    int listSize(int list) {
+        return lists[list];
+    }
+
+    int listItem(int list, int index) {
+        return lists[list + 1 + index];
+    }
+
+    String lexeme(int token) {
+        return strings[tokenLexemes[token]];
+    }
+
+    Token token(int token) {
+        if (token < 0) return null;
+        return new Token(TokenType.values()[tokenTypes[token]], lexeme(token), constants[tokenLiterals[token]], tokenLines[token]);
+    }
+
+    static AstArena encode(List<Stmt> statements) {
+        return new Encoder().encode(statements);
+    }
+
+    List<Stmt> decode() {
+        return new Decoder(this).decode();
+    }
+
+    static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private int[] nodes = new int[1024];
+        private int nodeCount = 0;
+        private int[] lists = new int[256];
+        private int listCount = 0;
+        private final List<Token> tokens = new ArrayList<>();
+        private final Map<Token, Integer> tokenIndex = new IdentityHashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        // offset of every encoded node, so side tables keyed by node can be carried over
+        private final Map<Object, Integer> offsets = new IdentityHashMap<>();
+
+        Encoder() {
+            // constant 0 is nil
+            constants.add(null);
+        }
+
+        AstArena encode(List<Stmt> statements) {
+            int program = stmts(statements);
+            byte[] tokenTypes = new byte[tokens.size()];
+            int[] tokenLexemes = new int[tokens.size()];
+            int[] tokenLiterals = new int[tokens.size()];
+            int[] tokenLines = new int[tokens.size()];
+            for (int i = 0; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                tokenTypes[i] = (byte) token.type.ordinal();
+                tokenLexemes[i] = string(token.lexeme);
+                tokenLiterals[i] = constant(token.literal);
+                tokenLines[i] = token.line;
+            }
+            return new AstArena(Arrays.copyOf(nodes, nodeCount), Arrays.copyOf(lists, listCount), tokenTypes,
+                    tokenLexemes, tokenLiterals, tokenLines, strings.toArray(new String[0]), constants.toArray(), program);
+        }
+
+        // offset of an encoded Expr/Stmt, -1 if it wasn't part of the program
+        int offsetOf(Object node) {
+            Integer offset = offsets.get(node);
+            return offset == null ? -1 : offset;
+        }
+
+        private int add(Object node, int kind, int... fields) {
+            while (nodeCount + fields.length + 1 > nodes.length) nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            int offset = nodeCount;
+            nodes[nodeCount++] = kind;
+            for (int field : fields) nodes[nodeCount++] = field;
+            offsets.put(node, offset);
+            return offset;
+        }
+
+        private int list(int[] items) {
+            while (listCount + items.length + 1 > lists.length) lists = Arrays.copyOf(lists, lists.length * 2);
+            int offset = listCount;
+            lists[listCount++] = items.length;
+            for (int item : items) lists[listCount++] = item;
+            return offset;
+        }
+
+        private int expr(Expr expr) {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        private int stmt(Stmt stmt) {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        private int exprs(List<Expr> exprs) {
+            int[] items = new int[exprs.size()];
+            for (int i = 0; i < items.length; i++) items[i] = expr(exprs.get(i));
+            return list(items);
+        }
+
+        private int stmts(List<? extends Stmt> stmts) {
+            int[] items = new int[stmts.size()];
+            for (int i = 0; i < items.length; i++) items[i] = stmt(stmts.get(i));
+            return list(items);
+        }
+
+        private int tokens(List<Token> tokens) {
+            int[] items = new int[tokens.size()];
+            for (int i = 0; i < items.length; i++) items[i] = token(tokens.get(i));
+            return list(items);
+        }
+
+        private int token(Token token) {
+            if (token == null) return -1;
+            return tokenIndex.computeIfAbsent(token, t -> {
+                tokens.add(t);
+                return tokens.size() - 1;
+            });
+        }
+
+        private int string(String string) {
+            return stringIndex.computeIfAbsent(string, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+
+        // literal values: nil, booleans, numbers and strings
+        private int constant(Object value) {
+            if (value == null) return 0;
+            return constantIndex.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign node) {
+            return add(node, ASSIGN, token(node.name), expr(node.value));
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary node) {
+            return add(node, BINARY, expr(node.left), token(node.operator), expr(node.right));
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary node) {
+            return add(node, TERNARY, expr(node.condition), token(node.questionMark), stmt(node.trueCase), token(node.colon), stmt(node.falseCase));
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call node) {
+            return add(node, CALL, expr(node.callee), token(node.paren), exprs(node.arguments));
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get node) {
+            return add(node, GET, expr(node.object), token(node.name));
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping node) {
+            return add(node, GROUPING, expr(node.expression));
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal node) {
+            return add(node, LITERAL, constant(node.value));
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical node) {
+            return add(node, LOGICAL, expr(node.left), token(node.operator), expr(node.right));
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set node) {
+            return add(node, SET, expr(node.object), token(node.name), expr(node.value));
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super node) {
+            return add(node, SUPER, token(node.keyword), token(node.method));
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This node) {
+            return add(node, THIS, token(node.keyword));
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary node) {
+            return add(node, UNARY, token(node.operator), expr(node.right));
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable node) {
+            return add(node, VARIABLE, token(node.name));
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block node) {
+            return add(node, BLOCK, stmts(node.statements));
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class node) {
+            return add(node, CLASS, token(node.name), expr(node.superclass), stmts(node.methods));
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression node) {
+            return add(node, EXPRESSION, expr(node.expression), node.display ? 1 : 0);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function node) {
+            return add(node, FUNCTION, token(node.name), tokens(node.params), stmts(node.body));
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If node) {
+            return add(node, IF, expr(node.condition), stmt(node.thenBranch), stmt(node.elseBranch));
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print node) {
+            return add(node, PRINT, expr(node.expression));
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return node) {
+            return add(node, RETURN, token(node.keyword), expr(node.value));
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var node) {
+            return add(node, VAR, token(node.name), expr(node.initializer));
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While node) {
+            return add(node, WHILE, expr(node.condition), stmt(node.body));
+        }
+    }
+
+    static final class Decoder {
+        private final AstArena arena;
+        // rebuilt nodes and tokens by offset, so shared tokens stay shared
+        private final Object[] decoded;
+        private final Token[] tokens;
+
+        Decoder(AstArena arena) {
+            this.arena = arena;
+            this.decoded = new Object[arena.nodes.length];
+            this.tokens = new Token[arena.tokenTypes.length];
+        }
+
+        List<Stmt> decode() {
+            return stmts(arena.program);
+        }
+
+        // the Expr/Stmt rebuilt for the node at the given offset
+        Object node(int offset) {
+            return decoded[offset];
+        }
+
+        private Token token(int token) {
+            if (token < 0) return null;
+            if (tokens[token] == null) tokens[token] = arena.token(token);
+            return tokens[token];
+        }
+
+        private List<Expr> exprs(int list) {
+            List<Expr> items = new ArrayList<>(arena.listSize(list));
+            for (int i = 0; i < arena.listSize(list); i++) items.add(expr(arena.listItem(list, i)));
+            return items;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Stmt> List<T> stmts(int list) {
+            List<T> items = new ArrayList<>(arena.listSize(list));
+            for (int i = 0; i < arena.listSize(list); i++) items.add((T) stmt(arena.listItem(list, i)));
+            return items;
+        }
+
+        private List<Token> tokens(int list) {
+            List<Token> items = new ArrayList<>(arena.listSize(list));
+            for (int i = 0; i < arena.listSize(list); i++) items.add(token(arena.listItem(list, i)));
+            return items;
+        }
+
+        private Expr expr(int node) {
+            if (node < 0) return null;
+            Expr decoded;
+            switch (arena.kind(node)) {
+                case ASSIGN:
+                    decoded = new Expr.Assign(token(arena.field(node, 0)), expr(arena.field(node, 1)));
+                    break;
+                case BINARY:
+                    decoded = new Expr.Binary(expr(arena.field(node, 0)), token(arena.field(node, 1)), expr(arena.field(node, 2)));
+                    break;
+                case TERNARY:
+                    decoded = new Expr.Ternary(expr(arena.field(node, 0)), token(arena.field(node, 1)), stmt(arena.field(node, 2)), token(arena.field(node, 3)), stmt(arena.field(node, 4)));
+                    break;
+                case CALL:
+                    decoded = new Expr.Call(expr(arena.field(node, 0)), token(arena.field(node, 1)), exprs(arena.field(node, 2)));
+                    break;
+                case GET:
+                    decoded = new Expr.Get(expr(arena.field(node, 0)), token(arena.field(node, 1)));
+                    break;
+                case GROUPING:
+                    decoded = new Expr.Grouping(expr(arena.field(node, 0)));
+                    break;
+                case LITERAL:
+                    decoded = new Expr.Literal(arena.constants[arena.field(node, 0)]);
+                    break;
+                case LOGICAL:
+                    decoded = new Expr.Logical(expr(arena.field(node, 0)), token(arena.field(node, 1)), expr(arena.field(node, 2)));
+                    break;
+                case SET:
+                    decoded = new Expr.Set(expr(arena.field(node, 0)), token(arena.field(node, 1)), expr(arena.field(node, 2)));
+                    break;
+                case SUPER:
+                    decoded = new Expr.Super(token(arena.field(node, 0)), token(arena.field(node, 1)));
+                    break;
+                case THIS:
+                    decoded = new Expr.This(token(arena.field(node, 0)));
+                    break;
+                case UNARY:
+                    decoded = new Expr.Unary(token(arena.field(node, 0)), expr(arena.field(node, 1)));
+                    break;
+                case VARIABLE:
+                    decoded = new Expr.Variable(token(arena.field(node, 0)));
+                    break;
+                default:
+                    throw new IllegalStateException("Not a Expr node: " + node);
+            }
+            this.decoded[node] = decoded;
+            return decoded;
+        }
+
+        private Stmt stmt(int node) {
+            if (node < 0) return null;
+            Stmt decoded;
+            switch (arena.kind(node)) {
+                case BLOCK:
+                    decoded = new Stmt.Block(stmts(arena.field(node, 0)));
+                    break;
+                case CLASS:
+                    decoded = new Stmt.Class(token(arena.field(node, 0)), (Expr.Variable) expr(arena.field(node, 1)), stmts(arena.field(node, 2)));
+                    break;
+                case EXPRESSION:
+                    decoded = new Stmt.Expression(expr(arena.field(node, 0)), arena.field(node, 1) != 0);
+                    break;
+                case FUNCTION:
+                    decoded = new Stmt.Function(token(arena.field(node, 0)), tokens(arena.field(node, 1)), stmts(arena.field(node, 2)));
+                    break;
+                case IF:
+                    decoded = new Stmt.If(expr(arena.field(node, 0)), stmt(arena.field(node, 1)), stmt(arena.field(node, 2)));
+                    break;
+                case PRINT:
+                    decoded = new Stmt.Print(expr(arena.field(node, 0)));
+                    break;
+                case RETURN:
+                    decoded = new Stmt.Return(token(arena.field(node, 0)), expr(arena.field(node, 1)));
+                    break;
+                case VAR:
+                    decoded = new Stmt.Var(token(arena.field(node, 0)), expr(arena.field(node, 1)));
+                    break;
+                case WHILE:
+                    decoded = new Stmt.While(expr(arena.field(node, 0)), stmt(arena.field(node, 1)));
+                    break;
+                default:
+                    throw new IllegalStateException("Not a Stmt node: " + node);
+            }
+            this.decoded[node] = decoded;
+            return decoded;
+        }
+    }
+}
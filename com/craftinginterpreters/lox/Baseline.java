@@ -0,0 +1,71 @@
+// A compiled program's globals, frozen after its top-level code ran once, for any number of executions to start from
+// instead of running the declarations again. Freezing marks every environment and instance reachable from the
+// globals (through closures, classes, methods and fields) as frozen. Nothing writes to them afterwards: each
+// execution sees them through an Overlay of its own, which copies what the execution changes.
+// An execution so costs what it changes rather than the size of the program, and executions can't see each
+// other's changes.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+final class Baseline {
+    final Program program;
+    // the frozen globals, read through by every Overlay's globals
+    final Map<String, Object> globals;
+
+    private Baseline(Program program, Map<String, Object> globals) {
+        this.program = program;
+        this.globals = globals;
+    }
+
+    // freezes what the interpreter defined running the program; the interpreter mustn't run anything afterwards
+    static Baseline freeze(Program program, Interpreter interpreter) {
+        Map<String, Object> globals = Collections.unmodifiableMap(new HashMap<>(interpreter.globals.values()));
+
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.add(interpreter.globals);
+        while (!pending.isEmpty()) {
+            Object object = pending.poll();
+            if (!seen.add(object)) continue;
+
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                environment.frozen = true;
+                if (environment.enclosing != null) pending.add(environment.enclosing);
+                references(pending, environment.values().values());
+            } else if (object instanceof LoxFunction) {
+                pending.add(((LoxFunction) object).closure);
+            } else if (object instanceof LoxClass) {
+                LoxClass klass = (LoxClass) object;
+                if (klass.superclass != null) pending.add(klass.superclass);
+                references(pending, klass.methods().values());
+            } else if (object instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance) object;
+                instance.frozen = true;
+                pending.add(instance.klass());
+                references(pending, instance.fields().values());
+            }
+        }
+        return new Baseline(program, globals);
+    }
+
+    // the values that may lead to more environments and instances (nil, numbers and strings don't)
+    private static void references(ArrayDeque<Object> pending, Collection<?> values) {
+        for (Object value : values) {
+            if (value != null && !ProgramFormat.isConstant(value)) pending.add(value);
+        }
+    }
+
+    // a fresh execution of the program's functions, starting from the frozen globals
+    Interpreter interpreter(RunContext context) {
+        return new Interpreter(context, this);
+    }
+}
@@ -0,0 +1,207 @@
+// `jlox --batch [--jobs n] [jlox flags] <dir|list>`: runs many scripts in one JVM, so the JIT warms up once for the
+// whole batch rather than once per file. The scripts are every .jlox file under a directory, or the paths listed one
+// per line in a file. Each runs on a fixed pool of workers with a Lox of its own, its stdout and stderr captured
+// and its stdin empty. The jlox flags apply to every script.
+//
+// The summary is one JSON object per script on stdout, in the order of the scripts:
+//   {"script": ..., "status": ..., "ms": ..., "stdout": ..., "stderr": ...}
+// status is what `jlox <flags> <script>` would exit with. A last line on stderr counts the failures, and the batch
+// exits with 1 if there were any.
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class Batch {
+    private final List<String> flags;
+    private final int jobs;
+
+    private Batch(List<String> flags, int jobs) {
+        this.flags = flags;
+        this.jobs = jobs;
+    }
+
+    // what one script did
+    private static final class Result {
+        final String script;
+        final int status;
+        final double millis;
+        final String stdout;
+        final String stderr;
+
+        Result(String script, int status, double millis, String stdout, String stderr) {
+            this.script = script;
+            this.status = status;
+            this.millis = millis;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+
+    // runs the batch the arguments after --batch describe, returning the exit status
+    static int run(String[] args) throws IOException {
+        List<String> flags = new ArrayList<>();
+        int jobs = Runtime.getRuntime().availableProcessors();
+        String target = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--jobs") && i + 1 < args.length) {
+                try {
+                    jobs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException error) {
+                    jobs = 0;
+                }
+                if (jobs < 1) return usage();
+            } else if (arg.startsWith("--")) {
+                flags.add(arg);
+                // the images are the only flags with an argument
+                if ((arg.equals("--save-image") || arg.equals("--load-image")) && i + 1 < args.length) {
+                    flags.add(args[++i]);
+                }
+            } else if (target == null) {
+                target = arg;
+            } else {
+                return usage();
+            }
+        }
+        if (target == null) return usage();
+
+        List<String> scripts;
+        try {
+            scripts = scripts(Paths.get(target));
+        } catch (NoSuchFileException error) {
+            System.err.println("Can't find the batch '" + target + "'.");
+            return 66;
+        } catch (IOException error) {
+            System.err.println("Can't read the batch '" + target + "': " + error.getMessage());
+            return 66;
+        }
+        return new Batch(flags, jobs).run(scripts);
+    }
+
+    private static int usage() {
+        System.out.println("Usage: jlox --batch [--jobs n] [jlox flags] <dir|list>");
+        return 64;
+    }
+
+    // every .jlox file under a directory in path order, or the lines of a list
+    private static List<String> scripts(Path target) throws IOException {
+        if (Files.isDirectory(target)) {
+            try (Stream<Path> files = Files.walk(target)) {
+                return files.filter(path -> path.toString().endsWith(".jlox") && Files.isRegularFile(path))
+                        .sorted()
+                        .map(Path::toString)
+                        .collect(Collectors.toList());
+            }
+        }
+        List<String> scripts = new ArrayList<>();
+        for (String line : Files.readAllLines(target)) {
+            if (!line.trim().isEmpty()) scripts.add(line.trim());
+        }
+        return scripts;
+    }
+
+    private int run(List<String> scripts) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(jobs);
+        List<Future<Result>> results = new ArrayList<>(scripts.size());
+        for (String script : scripts) {
+            results.add(workers.submit(() -> runScript(script)));
+        }
+        workers.shutdown();
+
+        // printed as they come in order, so a long batch shows progress
+        int failed = 0;
+        for (Future<Result> future : results) {
+            Result result;
+            try {
+                result = future.get();
+            } catch (ExecutionException | InterruptedException error) {
+                throw new IOException("Batch worker failed: " + error, error);
+            }
+            if (result.status != 0) failed++;
+            System.out.println(json(result));
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(scripts.size() + " scripts, " + failed + " failed, " + seconds + " s");
+        return failed == 0 ? 0 : 1;
+    }
+
+    private Result runScript(String script) throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(stdout, true);
+        PrintStream err = new PrintStream(stderr, true);
+        RunContext context = new RunContext(InputStream.nullInputStream(), out, err);
+
+        List<String> args = new ArrayList<>(flags);
+        args.add(script);
+
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = new Lox(context, Paths.get("")).run(args.toArray(new String[0]));
+        } catch (RuntimeException | StackOverflowError error) {
+            // one broken script doesn't take the batch with it
+            err.println("Internal error: " + error);
+            status = 70;
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        out.flush();
+        err.flush();
+        return new Result(script, status, millis, stdout.toString(Charset.defaultCharset()),
+                stderr.toString(Charset.defaultCharset()));
+    }
+
+    private static String json(Result result) {
+        StringBuilder json = new StringBuilder("{\"script\": ");
+        quote(json, result.script);
+        json.append(", \"status\": ").append(result.status);
+        json.append(", \"ms\": ").append(Math.round(result.millis * 1000) / 1000.0);
+        json.append(", \"stdout\": ");
+        quote(json, result.stdout);
+        json.append(", \"stderr\": ");
+        quote(json, result.stderr);
+        return json.append('}').toString();
+    }
+
+    private static void quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        json.append("\\u").append("0000".substring(hex.length())).append(hex);
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
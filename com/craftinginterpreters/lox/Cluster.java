@@ -0,0 +1,337 @@
+// `jlox --cluster [--workers n] script.jlox input`: a map-reduce job over the lines of the input (a file, or - for
+// stdin) on worker JVMs started on this machine, so the job isn't bound by one heap. The script defines
+// map(line) and reduce(a, b). The coordinator compiles it once, sends the compiled program (in ProgramFormat) to
+// each worker over a localhost socket, and hands out the input in shards. A worker runs map on every line of a
+// shard and streams the results back, which may be nil, booleans, numbers or strings. The coordinator then folds
+// them with reduce in input order, as soon as the shards before them are in, and prints the result.
+//
+// A worker that dies or hangs up mid-shard is replaced and the shard runs again, up to MAX_ATTEMPTS times. Each
+// shard starts from the globals as the script's top level left them (see Baseline), so a shard that runs twice
+// computes the same results. A runtime error in map or reduce fails the job.
+//
+// Every message is an int length and that many bytes:
+//   coordinator -> worker: the program, then SHARD messages (tag, shard, line count, lines); a worker exits once
+//                          the coordinator hangs up
+//   worker -> coordinator: VALUES messages (tag, count, values) for a shard, then DONE, or ERROR (tag, message)
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+class Cluster {
+    // message tags
+    static final byte SHARD = 1;
+    static final byte VALUES = 2;
+    static final byte DONE = 3;
+    static final byte ERROR = 4;
+
+    // runs of a shard before the job gives up on it
+    private static final int MAX_ATTEMPTS = 3;
+    // shards per worker, so a slow shard doesn't leave the others idle
+    private static final int SHARDS_PER_WORKER = 4;
+    // how long a starting worker has to connect
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+
+    private final byte[] program;
+    private final LinkedBlockingDeque<Shard> shards = new LinkedBlockingDeque<>();
+    // what the workers report, taken by the coordinator's thread
+    private final BlockingQueue<Shard> finished = new LinkedBlockingQueue<>();
+    private final List<Process> processes = new ArrayList<>();
+
+    private Cluster(byte[] program) {
+        this.program = program;
+    }
+
+    private static final class Shard {
+        final int index;
+        final List<String> lines;
+        int attempts = 0;
+        // set by the worker that ran it
+        List<Object> values;
+        String error;
+
+        Shard(int index, List<String> lines) {
+            this.index = index;
+            this.lines = lines;
+        }
+    }
+
+    // runs the job the arguments after --cluster describe, returning the exit status
+    static int run(String[] args) throws IOException {
+        int workers = Runtime.getRuntime().availableProcessors();
+        String script = null;
+        String input = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--workers") && i + 1 < args.length) {
+                try {
+                    workers = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException error) {
+                    workers = 0;
+                }
+                if (workers < 1) return usage();
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else if (input == null && (arg.equals("-") || !arg.startsWith("--"))) {
+                input = arg;
+            } else {
+                return usage();
+            }
+        }
+        if (input == null) return usage();
+
+        List<String> lines;
+        byte[] source;
+        try {
+            source = Files.readAllBytes(Paths.get(script));
+            lines = input.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in)).lines().collect(Collectors.toList())
+                    : Files.readAllLines(Paths.get(input), Charset.defaultCharset());
+        } catch (NoSuchFileException error) {
+            System.err.println("The given path: '" + error.getFile() + "' was incorrect");
+            return 66;
+        }
+
+        RunContext context = new RunContext();
+        Program compiled = Program.compile(new String(source, Charset.defaultCharset()), context, "map", "reduce");
+        if (compiled == null) return 65;
+
+        // the coordinator runs the top level too, for reduce
+        Interpreter interpreter = new Interpreter(context, compiled);
+        interpreter.interpret(compiled);
+        if (context.hadRuntimeError) return 70;
+        Map<String, Object> globals = interpreter.globals.values();
+        LoxCallable reduce = function(globals, "reduce", 2);
+        if (reduce == null || function(globals, "map", 1) == null) {
+            System.err.println("A cluster script defines map(line) and reduce(a, b).");
+            return 65;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ProgramFormat.writeProgram(new DataOutputStream(bytes), compiled);
+        Cluster cluster = new Cluster(bytes.toByteArray());
+
+        int size = Math.max(1, lines.size() / (workers * SHARDS_PER_WORKER));
+        for (int from = 0; from < lines.size(); from += size) {
+            cluster.shards.add(new Shard(cluster.shards.size(), lines.subList(from, Math.min(from + size, lines.size()))));
+        }
+        int count = cluster.shards.size();
+
+        try {
+            for (int i = 0; i < Math.min(workers, count); i++) {
+                Thread thread = new Thread(cluster::serveShards, "lox-cluster-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            // folded in shard order, holding on to the shards that came in early
+            Map<Integer, Shard> early = new HashMap<>();
+            Object result = null;
+            boolean first = true;
+            for (int next = 0; next < count; ) {
+                Shard shard = cluster.finished.take();
+                if (shard.error != null) {
+                    System.err.println(shard.error);
+                    return 70;
+                }
+                early.put(shard.index, shard);
+                while (early.containsKey(next)) {
+                    for (Object value : early.remove(next++).values) {
+                        result = first ? value : reduce.call(interpreter, Arrays.asList(result, value));
+                        first = false;
+                    }
+                }
+            }
+            context.out.println(interpreter.stringify(result));
+            return 0;
+        } catch (RuntimeError error) {
+            context.runtimeError(error);
+            return 70;
+        } catch (Natives.Failure | StackOverflowError error) {
+            System.err.println("reduce failed: "
+                    + (error instanceof StackOverflowError ? "stack overflow." : error.getMessage()));
+            return 70;
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            return 70;
+        } finally {
+            cluster.stop();
+        }
+    }
+
+    private static int usage() {
+        System.out.println("Usage: jlox --cluster [--workers n] script.jlox <input|->");
+        return 64;
+    }
+
+    // the global function of that name and arity, null if there is none
+    static LoxCallable function(Map<String, Object> globals, String name, int arity) {
+        Object value = globals.get(name);
+        if (!(value instanceof LoxCallable) || ((LoxCallable) value).arity() != arity) return null;
+        return (LoxCallable) value;
+    }
+
+    // one worker slot: runs shards on its worker, starting a new one whenever the last one failed
+    private void serveShards() {
+        Connection worker = null;
+        for (;;) {
+            Shard shard;
+            try {
+                shard = shards.takeFirst();
+            } catch (InterruptedException error) {
+                return;
+            }
+
+            try {
+                if (worker == null) worker = start();
+                worker.run(shard);
+                finished.add(shard);
+            } catch (IOException error) {
+                if (worker != null) worker.kill();
+                worker = null;
+                // (an EOFException is a worker that died, and has no message)
+                String reason = error.getMessage() != null ? error.getMessage() : "the worker hung up";
+                if (++shard.attempts >= MAX_ATTEMPTS) {
+                    shard.error = "Shard " + shard.index + " failed " + shard.attempts + " times, last: " + reason;
+                    finished.add(shard);
+                    return;
+                }
+                System.err.println("Worker failed on shard " + shard.index + " (" + reason + "), retrying.");
+                // at the front, so the fold isn't held up waiting for it
+                shards.addFirst(shard);
+            }
+        }
+    }
+
+    // starts a worker JVM from the same class path and waits for it to connect
+    private Connection start() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "com.craftinginterpreters.lox.Lox", "--cluster-worker", String.valueOf(server.getLocalPort()))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            synchronized (processes) {
+                processes.add(process);
+            }
+
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException error) {
+                process.destroyForcibly();
+                throw new IOException("Worker didn't connect: " + error.getMessage());
+            }
+            Connection connection = new Connection(process, socket);
+            connection.send(program);
+            return connection;
+        }
+    }
+
+    private void stop() {
+        synchronized (processes) {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    // a running worker
+    private static final class Connection {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(Process process, Socket socket) throws IOException {
+            this.process = process;
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void send(byte[] message) throws IOException {
+            writeMessage(out, message);
+            out.flush();
+        }
+
+        // sends the shard and collects its values as they stream in
+        void run(Shard shard) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream message = new DataOutputStream(bytes);
+            message.writeByte(SHARD);
+            message.writeInt(shard.index);
+            message.writeInt(shard.lines.size());
+            for (String line : shard.lines) {
+                ProgramFormat.writeString(message, line);
+            }
+            send(bytes.toByteArray());
+
+            List<Object> values = new ArrayList<>(shard.lines.size());
+            for (;;) {
+                DataInputStream reply = readMessage(in);
+                byte tag = reply.readByte();
+                if (tag == DONE) break;
+                if (tag == ERROR) {
+                    shard.error = ProgramFormat.readString(reply);
+                    return;
+                }
+                if (tag != VALUES) throw new IOException("Bad reply " + tag + ".");
+                for (int i = reply.readInt(); i > 0; i--) {
+                    values.add(ProgramFormat.readValue(reply));
+                }
+            }
+            if (values.size() != shard.lines.size()) throw new IOException("Worker lost results.");
+            shard.values = values;
+        }
+
+        void kill() {
+            process.destroyForcibly();
+            try {
+                socket.close();
+            } catch (IOException error) {
+                // it's gone either way
+            }
+        }
+    }
+
+    static void writeMessage(DataOutputStream out, byte[] message) throws IOException {
+        out.writeInt(message.length);
+        out.write(message);
+    }
+
+    // read whole, since ProgramFormat checks its counts against what is available
+    static DataInputStream readMessage(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) throw new IOException("Bad message length " + length + ".");
+        byte[] message = new byte[length];
+        in.readFully(message);
+        return new DataInputStream(new ByteArrayInputStream(message));
+    }
+}
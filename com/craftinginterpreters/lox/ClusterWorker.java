@@ -0,0 +1,122 @@
+// `jlox --cluster-worker port`: a worker JVM of a Cluster. It connects to the coordinator on localhost, reads the
+// compiled program, runs its top level once and freezes the result into a Baseline. Then it runs map over the lines
+// of each shard it is sent, on a fresh execution of the Baseline per shard, and streams the results back.
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+class ClusterWorker {
+    // results per VALUES message
+    private static final int BATCH = 256;
+
+    static int run(String[] args) throws IOException {
+        if (args.length != 1) return 64;
+        int port = Integer.parseInt(args[0]);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            DataInputStream message = Cluster.readMessage(in);
+            Program program = ProgramFormat.readProgram(message).program;
+            if (message.available() != 0) throw new IOException("Bad program.");
+
+            // the script's prints end up on the coordinator's stderr
+            RunContext context = new RunContext(System.err, System.err);
+            Interpreter interpreter = new Interpreter(context, program);
+            interpreter.interpret(program);
+            if (context.hadRuntimeError) return 70;
+            Baseline baseline = Baseline.freeze(program, interpreter);
+            LoxCallable map = Cluster.function(baseline.globals, "map", 1);
+            if (map == null) return 65;
+
+            for (;;) {
+                try {
+                    message = Cluster.readMessage(in);
+                } catch (EOFException done) {
+                    return 0;
+                }
+                byte tag = message.readByte();
+                if (tag != Cluster.SHARD) throw new IOException("Bad message " + tag + ".");
+                message.readInt();
+                runShard(baseline, map, message, out);
+            }
+        }
+    }
+
+    private static void runShard(Baseline baseline, LoxCallable map, DataInputStream shard, DataOutputStream out)
+            throws IOException {
+        Interpreter execution = baseline.interpreter(new RunContext(System.err, System.err));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream batch = new DataOutputStream(bytes);
+        int batched = 0;
+        for (int i = shard.readInt(); i > 0; i--) {
+            String line = ProgramFormat.readString(shard);
+            Object value;
+            try {
+                value = map.call(execution, Arrays.asList((Object) line));
+            } catch (RuntimeError error) {
+                reply(out, Cluster.ERROR, error.getMessage() + "\n[line " + error.token.line + "]");
+                return;
+            } catch (Natives.Failure | StackOverflowError error) {
+                // as deterministic as a runtime error, so not worth a retry on another worker
+                reply(out, Cluster.ERROR, "map failed: "
+                        + (error instanceof StackOverflowError ? "stack overflow." : error.getMessage()));
+                return;
+            }
+            if (!ProgramFormat.isConstant(value)) {
+                reply(out, Cluster.ERROR, "map returned " + execution.stringify(value)
+                        + ", but only nil, booleans, numbers and strings can be sent back.");
+                return;
+            }
+
+            if (batched == 0) {
+                batch.writeByte(Cluster.VALUES);
+                // patched in below
+                batch.writeInt(0);
+            }
+            ProgramFormat.writeValue(batch, value);
+            if (++batched == BATCH) {
+                sendBatch(out, bytes, batched);
+                batched = 0;
+            }
+        }
+        if (batched > 0) sendBatch(out, bytes, batched);
+
+        bytes.reset();
+        bytes.write(Cluster.DONE);
+        Cluster.writeMessage(out, bytes.toByteArray());
+        out.flush();
+    }
+
+    private static void sendBatch(DataOutputStream out, ByteArrayOutputStream bytes, int count) throws IOException {
+        byte[] message = bytes.toByteArray();
+        message[1] = (byte) (count >>> 24);
+        message[2] = (byte) (count >>> 16);
+        message[3] = (byte) (count >>> 8);
+        message[4] = (byte) count;
+        Cluster.writeMessage(out, message);
+        out.flush();
+        bytes.reset();
+    }
+
+    private static void reply(DataOutputStream out, byte tag, String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream message = new DataOutputStream(bytes);
+        message.writeByte(tag);
+        ProgramFormat.writeString(message, text);
+        Cluster.writeMessage(out, bytes.toByteArray());
+        out.flush();
+    }
+}
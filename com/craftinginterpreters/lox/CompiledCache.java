@@ -0,0 +1,106 @@
+// On-disk cache of resolved programs. An entry is the AstArena form of a script after tree shaking, together with
+// the Resolver's depths and releases, the PartialEvaluator's constants and the EscapeAnalysis's replaced instances,
+// keyed by node offset. Entries live in <cache dir>/<hash>.jloxc, the hash covering FORMAT and the source bytes, and
+// end with a CRC32 of their contents (see ProgramFormat). An entry also keeps the source it was built from, so a hash
+// collision is a miss rather than the wrong program.
+// A missing, stale or corrupt entry is a miss and the front end simply runs again.
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+class CompiledCache {
+    // bump whenever the AST, the arena layout or what the front end computes changes
+    private static final String FORMAT = "jloxc-4";
+    private static final int MAGIC = 0x4a4c5843;
+
+    private final Path directory;
+
+    private CompiledCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // $JLOX_CACHE, or ~/.cache/jlox
+    static CompiledCache open() {
+        String configured = System.getenv("JLOX_CACHE");
+        Path directory = configured != null
+                ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+        return new CompiledCache(directory);
+    }
+
+    // 64-bit FNV-1a: a MessageDigest would cost more startup time (security providers) than the cache saves
+    String key(byte[] source) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : FORMAT.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        for (byte b : source) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        // not String.format, which drags in Formatter and regex
+        String hex = Long.toHexString(hash);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private Path entry(String key) {
+        return directory.resolve(key + ".jloxc");
+    }
+
+    // the cached program, null on a miss
+    Program load(String key, byte[] source) {
+        Path path = entry(key);
+        if (!Files.isRegularFile(path)) return null;
+
+        try {
+            DataInputStream in = ProgramFormat.checked(Files.readAllBytes(path));
+            if (in == null) return null;
+            if (in.readInt() != MAGIC || !ProgramFormat.readString(in).equals(FORMAT)) return null;
+
+            byte[] cachedSource = new byte[ProgramFormat.readCount(in, 1)];
+            in.readFully(cachedSource);
+            if (!Arrays.equals(cachedSource, source)) return null;
+
+            Program program = ProgramFormat.readProgram(in).program;
+            if (in.available() != 0) return null;
+            return program;
+        } catch (IOException | RuntimeException error) {
+            return null;
+        }
+    }
+
+    // writes the entry for a program the front end just resolved, best effort
+    void store(String key, byte[] source, Program program) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            ProgramFormat.writeString(out, FORMAT);
+            out.writeInt(source.length);
+            out.write(source);
+            ProgramFormat.writeProgram(out, program);
+            ProgramFormat.writeChecksum(bytes);
+
+            // written next to the entry and moved in place, so a reader never sees half of it
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temporary, bytes.toByteArray());
+                Files.move(temporary, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException | RuntimeException error) {
+            // a program that can't be cached still runs
+        }
+    }
+}
@@ -0,0 +1,235 @@
+// `jlox --daemon`: a JVM that stays up (and warm) listening on a Unix domain socket, running the command lines
+// DaemonClient sends it. Every request gets a Lox of its own with a fresh interpreter and RunContext, on a thread of
+// its own (see Threads), so requests run side by side and can't see each other's globals or errors.
+//
+// The protocol, all numbers big-endian:
+//   client -> daemon: the argument count, the arguments and the client's working directory (writeUTF strings),
+//                     then its stdin as frames of a length and that many bytes, a length of 0 ending the input
+//   daemon -> client: STDOUT and STDERR frames (tag, length, bytes), then an EXIT tag and the exit status
+// The daemon only reads the stdin frames a script asks for, the rest are dropped with the connection.
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+class Daemon {
+    // frames sent to the client
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    // more arguments than any command line has
+    private static final int MAX_ARGUMENTS = 1024;
+
+    // $JLOX_SOCKET, or ~/.cache/jlox/daemon.sock
+    static Path socketPath() {
+        String configured = System.getenv("JLOX_SOCKET");
+        return configured != null
+                ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".cache", "jlox", "daemon.sock");
+    }
+
+    // whether the daemon runs the command line: scripts and the prompt. The other modes serve, spawn workers or
+    // run many scripts for a long time, and get a JVM of their own
+    static boolean runs(String[] args) {
+        if (args.length == 0) return true;
+        switch (args[0]) {
+            case "--daemon":
+            case "--batch":
+            case "--serve":
+            case "--cluster":
+            case "--cluster-worker":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // serves requests until the process is killed
+    static void serve(Path path) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        // a socket file nobody answers on is left over from a daemon that died
+        if (Files.exists(path)) {
+            try {
+                SocketChannel.open(address).close();
+                System.err.println("A jlox daemon is already listening on '" + path + "'.");
+                System.exit(69);
+            } catch (IOException stale) {
+                Files.delete(path);
+            }
+        }
+        if (path.toAbsolutePath().getParent() != null) Files.createDirectories(path.toAbsolutePath().getParent());
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException error) {
+                // nothing left to do about it
+            }
+        }));
+        System.err.println("jlox daemon listening on '" + path + "'.");
+
+        ExecutorService requests = Threads.perTask("jlox-request");
+        for (;;) {
+            SocketChannel client = server.accept();
+            requests.execute(() -> handle(client));
+        }
+    }
+
+    private static void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream request = new DataInputStream(new BufferedInputStream(input(channel)));
+            DataOutputStream response = new DataOutputStream(new BufferedOutputStream(output(channel)));
+
+            int count = request.readInt();
+            if (count < 0 || count > MAX_ARGUMENTS) throw new IOException("Bad argument count " + count + ".");
+            String[] args = new String[count];
+            for (int i = 0; i < count; i++) {
+                args[i] = request.readUTF();
+            }
+            Path directory = Paths.get(request.readUTF());
+
+            // println flushes, so a client sees a line as soon as the script printed it
+            PrintStream out = new PrintStream(new BufferedOutputStream(new Frames(response, STDOUT)), true);
+            PrintStream err = new PrintStream(new BufferedOutputStream(new Frames(response, STDERR)), true);
+            RunContext context = new RunContext(new Stdin(request), out, err);
+
+            int status;
+            try {
+                if (runs(args)) {
+                    status = new Lox(context, directory).run(args);
+                } else {
+                    err.println("The daemon doesn't run " + args[0] + ", run it without the daemon.");
+                    status = 64;
+                }
+            } catch (RuntimeException | StackOverflowError error) {
+                // the daemon outlives a request the interpreter itself didn't handle
+                err.println("Internal error: " + error);
+                status = 70;
+            }
+
+            out.flush();
+            err.flush();
+            synchronized (response) {
+                response.writeByte(EXIT);
+                response.writeInt(status);
+                response.flush();
+            }
+        } catch (IOException error) {
+            // the client went away or spoke nonsense, either way there's nobody to tell
+        }
+    }
+
+    // streams over a blocking channel that, unlike Channels.newInputStream and newOutputStream, don't share one lock,
+    // so a thread waiting for input doesn't hold up another one writing output
+    static InputStream input(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) return 0;
+                return channel.read(ByteBuffer.wrap(bytes, offset, length));
+            }
+        };
+    }
+
+    static OutputStream output(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    // what a script writes to one of its streams, sent as frames of that stream
+    private static final class Frames extends OutputStream {
+        private final DataOutputStream response;
+        private final byte tag;
+
+        Frames(DataOutputStream response, byte tag) {
+            this.response = response;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            // stdout and stderr (and any tasks of the script) share the connection
+            synchronized (response) {
+                response.writeByte(tag);
+                response.writeInt(length);
+                response.write(bytes, offset, length);
+                response.flush();
+            }
+        }
+    }
+
+    // the script's stdin, read from the client's frames as the script asks for it
+    private static final class Stdin extends InputStream {
+        private final DataInputStream request;
+        // bytes left in the current frame, -1 once the input ended
+        private int remaining = 0;
+
+        Stdin(DataInputStream request) {
+            this.request = request;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (remaining == 0) {
+                remaining = request.readInt();
+                if (remaining <= 0) remaining = -1;
+            }
+            if (remaining < 0) return -1;
+
+            int read = request.read(bytes, offset, Math.min(length, remaining));
+            if (read < 0) throw new IOException("The client closed its stdin mid-frame.");
+            remaining -= read;
+            return read;
+        }
+    }
+}
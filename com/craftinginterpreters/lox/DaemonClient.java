@@ -0,0 +1,85 @@
+// The thin client of a `jlox --daemon`: sends its command line, working directory and stdin to the daemon and
+// passes the script's stdout, stderr and exit status back through (see Daemon for the protocol). It only loads a
+// handful of classes, so it starts in a fraction of the time a full jlox run takes.
+// Without a daemon to talk to it runs the command line in its own JVM instead, as it does for the modes the daemon
+// doesn't run (see Daemon.runs).
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+public class DaemonClient {
+    public static void main(String[] args) throws IOException {
+        if (!Daemon.runs(args)) {
+            Lox.main(args);
+            return;
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Daemon.socketPath()));
+        } catch (IOException error) {
+            Lox.main(args);
+            return;
+        }
+
+        DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Daemon.output(channel)));
+        request.writeInt(args.length);
+        for (String arg : args) {
+            request.writeUTF(arg);
+        }
+        request.writeUTF(Paths.get("").toAbsolutePath().toString());
+        request.flush();
+
+        // a daemon thread, so a script that never reads its input doesn't keep the client waiting for it
+        Thread stdin = new Thread(() -> sendInput(request), "jlox-stdin");
+        stdin.setDaemon(true);
+        stdin.start();
+
+        DataInputStream response = new DataInputStream(new BufferedInputStream(Daemon.input(channel)));
+        try {
+            for (;;) {
+                byte tag = response.readByte();
+                if (tag == Daemon.EXIT) {
+                    System.exit(response.readInt());
+                }
+                byte[] bytes = new byte[response.readInt()];
+                response.readFully(bytes);
+                if (tag == Daemon.STDERR) {
+                    System.err.write(bytes);
+                    System.err.flush();
+                } else {
+                    System.out.write(bytes);
+                    System.out.flush();
+                }
+            }
+        } catch (EOFException error) {
+            System.err.println("The jlox daemon closed the connection.");
+            System.exit(74);
+        }
+    }
+
+    private static void sendInput(DataOutputStream request) {
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = System.in.read(buffer)) > 0) {
+                request.writeInt(read);
+                request.write(buffer, 0, read);
+                request.flush();
+            }
+            request.writeInt(0);
+            request.flush();
+        } catch (IOException error) {
+            // the script is done with its input
+        }
+    }
+}
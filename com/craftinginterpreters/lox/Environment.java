@@ -1,52 +1,243 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+// Memory model: the environments of a run are only ever touched by one thread until the run spawns its first
+// task (see LoxTask). From then on (context.concurrent) every access locks the environment it reads or writes,
+// so a write made by one task is seen by any task reading the variable after it.
+//
+// A variable assigned a number from arithmetic holds it in a NumberSlot, written in place from then on. get, getAt
+// and values() box it for generic code; lookUp and storedAt hand out the slot itself to arithmetic, which reads the
+// raw double (see Interpreter.operand).
+//
+// Environments frozen into a Baseline are never written again: an interpreter with an Overlay writes to the
+// Overlay's copy instead (see Interpreter.lookUpVariable and visitAssignExpr), and the Overlay's globals read
+// through to the Baseline's variables until they are assigned.
 class Environment {
     final Environment enclosing;
+    // shared by every environment of a run
+    final RunContext context;
+    // context.epoch when this environment was created, see Parallel
+    final int epoch;
     private final Map<String, Object> values = new HashMap<>();
+    // the frozen variables of a Baseline under the globals of an Overlay, null otherwise
+    private final Map<String, Object> base;
+    // set by Baseline.freeze
+    boolean frozen = false;
 
     // giving environment reference to its enclosing one.
     
     // for global scope
-    Environment(){  
-        enclosing = null;
+    Environment(RunContext context){
+        this(context, (Map<String, Object>) null);
+    }
+    // for the globals of an Overlay, reading through to the base until a variable is written
+    Environment(RunContext context, Map<String, Object> base){
+        this.enclosing = null;
+        this.context = context;
+        this.epoch = context.epoch;
+        this.base = base;
     }
     // for new nested local scope 
     Environment (Environment enclosing){
+        this(enclosing, enclosing.context);
+    }
+    // for a scope of another run than the enclosing one's, like a call of a Baseline function
+    Environment (Environment enclosing, RunContext context){
         this.enclosing = enclosing;
+        this.context = context;
+        this.epoch = context.epoch;
+        this.base = null;
+    }
+
+    // an unfrozen copy of this scope for an Overlay, with the same enclosing scope
+    Environment copy(RunContext context) {
+        Environment copy = new Environment(enclosing, context);
+        synchronized (this) {
+            for (Map.Entry<String, Object> variable : values.entrySet()) {
+                Object value = variable.getValue();
+                // (the copy's numbers are written in place too, so it gets slots of its own)
+                copy.values.put(variable.getKey(), value instanceof NumberSlot ? new NumberSlot((NumberSlot) value) : value);
+            }
+        }
+        return copy;
+    }
+
+    // forgets what was written over the base, for Overlay.reset
+    void clearOverlay() {
+        synchronized (this) {
+            values.clear();
+        }
     }
 
 
     Object get(Token name){
+        return NumberSlot.unbox(lookUp(name));
+    }
+
+    // the variable as stored, a NumberSlot for a number that was assigned from arithmetic
+    Object lookUp(Token name){
         // for lookup in current environment
-        if (values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+        if (has(name.lexeme)){
+            return stored(name.lexeme);
         }
         // if not, then look at enclosing/outer one
-        if (enclosing != null) return enclosing.get(name);
+        if (enclosing != null) return enclosing.lookUp(name);
 
+        if (defineNative(name.lexeme)) return stored(name.lexeme);
         throw new RuntimeError(name, "Undefined variable '"+ name.lexeme + "'.");
     }
     // assign value [doesn't create new variable]
     void assign(Token name, Object value){
-        if (values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
+        if (has(name.lexeme)){
+            write(name.lexeme, value);
             return;
         }
         if (enclosing!= null) {
             enclosing.assign(name, value);
             return;
         }
+        if (Natives.isPredefined(name.lexeme)) {
+            write(name.lexeme, value);
+            return;
+        }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme+ "'.");
     }
 
+    // assigns a number computed by arithmetic, in place when the variable already holds one that was
+    void assignNumber(Token name, double value){
+        if (has(name.lexeme)){
+            writeNumber(name.lexeme, value);
+            return;
+        }
+        if (enclosing != null) {
+            enclosing.assignNumber(name, value);
+            return;
+        }
+        assign(name, Interpreter.box(value));
+    }
+
 
-    void define(String name, Object value) {
+    // globals start out without the natives, one is defined when a lookup reaches the global scope without finding it
+    private boolean defineNative(String name) {
+        LoxCallable callable = Natives.create(name);
+        if (callable == null) return false;
+        write(name, callable);
+        return true;
+    }
+
+    // variables are never removed while they can still be read, so has() and a following read() needn't be atomic
+    private boolean has(String name) {
+        if (!context.concurrent) return hasValue(name);
+        synchronized (this) {
+            return hasValue(name);
+        }
+    }
+
+    // whether this scope itself has the variable
+    boolean defines(String name) {
+        return has(name);
+    }
+
+    private boolean hasValue(String name) {
+        return values.containsKey(name) || (base != null && base.containsKey(name));
+    }
+
+    private Object read(String name) {
+        if (!context.concurrent) return NumberSlot.unbox(value(name));
+        synchronized (this) {
+            return NumberSlot.unbox(value(name));
+        }
+    }
+
+    // the slot itself while the run is single-threaded, as no one else writes it while the caller reads it
+    private Object stored(String name) {
+        if (!context.concurrent) return value(name);
+        synchronized (this) {
+            return NumberSlot.unbox(value(name));
+        }
+    }
+
+    private Object value(String name) {
+        Object value = values.get(name);
+        // (nil is a null value, so only a miss looks at the base)
+        if (value == null && base != null && !values.containsKey(name)) return base.get(name);
+        return value;
+    }
+
+    private void write(String name, Object value) {
+        if (!context.concurrent) {
+            put(name, value);
+            return;
+        }
+        synchronized (this) {
+            put(name, value);
+        }
+    }
+
+    private void put(String name, Object value) {
+        if (value instanceof Double) {
+            Object stored = values.get(name);
+            if (stored instanceof NumberSlot) {
+                ((NumberSlot) stored).set((Double) value);
+                return;
+            }
+        }
         values.put(name, value);
     }
 
+    private void writeNumber(String name, double value) {
+        if (!context.concurrent) {
+            putNumber(name, value);
+            return;
+        }
+        synchronized (this) {
+            putNumber(name, value);
+        }
+    }
+
+    private void putNumber(String name, double value) {
+        Object stored = values.get(name);
+        if (stored instanceof NumberSlot) {
+            ((NumberSlot) stored).set(value);
+        } else {
+            values.put(name, new NumberSlot(value));
+        }
+    }
+
+    // the variables of this scope alone, for HeapImage and Baseline
+    Map<String, Object> values() {
+        Map<String, Object> merged = base == null ? new HashMap<>() : new HashMap<>(base);
+        synchronized (this) {
+            for (Map.Entry<String, Object> variable : values.entrySet()) {
+                merged.put(variable.getKey(), NumberSlot.unbox(variable.getValue()));
+            }
+        }
+        return Collections.unmodifiableMap(merged);
+    }
+
+    void define(String name, Object value) {
+        write(name, value);
+    }
+
+    // defines a variable holding a number computed by arithmetic
+    void defineNumber(String name, double value) {
+        writeNumber(name, value);
+    }
+
+    // clear a local once the resolver proved it is never read again
+    void release(String name) {
+        if (!context.concurrent) {
+            values.remove(name);
+            return;
+        }
+        synchronized (this) {
+            values.remove(name);
+        }
+    }
+
     // walks a fixed number of hops up the parent chain and return the environment there.
     Environment ancestor(int distance) {
         Environment environment = this;
@@ -59,11 +250,20 @@ class Environment {
 
     // get local variable at given stack level
     Object getAt (int distance, String name) {
-        return ancestor(distance).values.get(name);  // return value of variable from environment
+        return ancestor(distance).read(name);  // return value of variable from environment
+    }
+
+    // the local as stored, see lookUp
+    Object storedAt (int distance, String name) {
+        return ancestor(distance).stored(name);
     }
 
     // assign local variable at given stack level
     void assignAt (int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);  // return value of variable from environment
+        ancestor(distance).write(name.lexeme, value);  // return value of variable from environment
+    }
+
+    void assignNumberAt (int distance, Token name, double value) {
+        ancestor(distance).writeNumber(name.lexeme, value);
     }
 }
@@ -0,0 +1,430 @@
+// Finds instances that never leave the function creating them and replaces each one by a local per field, so a
+// value object made in a loop costs no LoxInstance, no fields and no init call. A var p qualifies when
+//  - it is local to a function and initialized by a call of a global class without a superclass, whose init only
+//    sets fields of 'this', each once, from expressions that don't use 'this',
+//  - and it is only ever used as p.field or p.field = value, for fields init sets, in the function declaring it:
+//    no closure captures it, no method is called on it, it isn't passed, returned, printed or reassigned.
+// The interpreter then defines the fields as locals named "p.field" in p's scope (see Interpreter.defineScalar),
+// which the marked gets and sets read and write. When the var runs, it checks that the global still holds the class
+// that was analyzed, and makes a real instance otherwise, which the marked gets and sets then fall back to.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class EscapeAnalysis implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final SideTables tables;
+
+    // global classes whose instances can be replaced, by name
+    private final Map<String, Stmt.Class> classes = new HashMap<>();
+    // what each local scope declares, the var's candidate or NOT_REPLACED
+    private final Deque<Map<String, Candidate>> scopes = new ArrayDeque<>();
+    private final List<Candidate> candidates = new ArrayList<>();
+    // functions the walk is in
+    private int functionDepth = 0;
+    // globals the program assigns
+    private final Set<String> assigned = new HashSet<>();
+
+    private static final Candidate NOT_REPLACED = new Candidate(null, null, 0);
+
+    EscapeAnalysis(SideTables tables) {
+        this.tables = tables;
+    }
+
+    // how a replaced var makes its fields: the init analyzed, and what it sets
+    static final class Replacement {
+        final Stmt.Function init;
+        // the locals standing in for the fields, in the order init sets them
+        final String[] locals;
+        // the expression init sets each field to
+        final Expr[] values;
+        // each field's parameter when every field is set to a parameter or a literal (-1 for a literal), so the
+        // fields can be defined straight from the arguments; null otherwise
+        final int[] parameters;
+
+        Replacement(Stmt.Var var, Stmt.Function init) {
+            this.init = init;
+            this.locals = new String[init.body.size()];
+            this.values = new Expr[init.body.size()];
+            int[] parameters = new int[init.body.size()];
+            boolean direct = true;
+            for (int i = 0; i < locals.length; i++) {
+                Expr.Set set = (Expr.Set) ((Stmt.Expression) init.body.get(i)).expression;
+                locals[i] = local(var.name, set.name);
+                values[i] = set.value;
+                parameters[i] = parameter(init, set.value);
+                if (parameters[i] == -2) direct = false;
+            }
+            this.parameters = direct ? parameters : null;
+        }
+
+        // the parameter the value is, -1 for a literal and -2 for anything else
+        private static int parameter(Stmt.Function init, Expr value) {
+            if (value instanceof Expr.Literal) return -1;
+            if (!(value instanceof Expr.Variable)) return -2;
+            for (int i = 0; i < init.params.size(); i++) {
+                if (init.params.get(i).lexeme.equals(((Expr.Variable) value).name.lexeme)) return i;
+            }
+            return -2;
+        }
+    }
+
+    // the local holding the field of a replaced var
+    static String local(Token var, Token field) {
+        return var.lexeme + "." + field.lexeme;
+    }
+
+    // a var initialized by a call of a replaceable class, with every use of it
+    private static final class Candidate {
+        final Stmt.Var var;
+        final Stmt.Class klass;
+        final int functionDepth;
+        // the gets and sets of its fields
+        final List<Expr> accesses = new ArrayList<>();
+        boolean escapes = false;
+
+        Candidate(Stmt.Var var, Stmt.Class klass, int functionDepth) {
+            this.var = var;
+            this.klass = klass;
+            this.functionDepth = functionDepth;
+        }
+    }
+
+    void analyze(List<Stmt> statements) {
+        findClasses(statements);
+        if (classes.isEmpty()) return;
+
+        walk(statements);
+        for (Candidate candidate : candidates) {
+            if (candidate.escapes || assigned.contains(candidate.klass.name.lexeme)) continue;
+            Stmt.Function init = init(candidate.klass);
+            Set<String> fields = fieldsOf(init);
+            boolean setFieldsOnly = true;
+            for (Expr access : candidate.accesses) {
+                if (!fields.contains(fieldName(access).lexeme)) setFieldsOnly = false;
+            }
+            if (!setFieldsOnly) continue;
+
+            tables.replace(candidate.var, new Replacement(candidate.var, init));
+            for (Expr access : candidate.accesses) {
+                tables.replaceField(access, local(candidate.var.name, fieldName(access)));
+            }
+        }
+    }
+
+    // classes declared once at the top level, not shadowed by another global, with a plain init (the ones the
+    // program assigns are dropped once the walk found them)
+    private void findClasses(List<Stmt> statements) {
+        Set<String> excluded = new HashSet<>();
+        for (Stmt statement : statements) {
+            Token name = null;
+            if (statement instanceof Stmt.Class) {
+                Stmt.Class klass = (Stmt.Class) statement;
+                if (classes.containsKey(klass.name.lexeme) || klass.superclass != null || !isPlainInit(init(klass))) {
+                    excluded.add(klass.name.lexeme);
+                }
+                classes.put(klass.name.lexeme, klass);
+            } else if (statement instanceof Stmt.Var) {
+                name = ((Stmt.Var) statement).name;
+            } else if (statement instanceof Stmt.Function) {
+                name = ((Stmt.Function) statement).name;
+            }
+            if (name != null) excluded.add(name.lexeme);
+        }
+        classes.keySet().removeAll(excluded);
+    }
+
+    private static Stmt.Function init(Stmt.Class klass) {
+        for (Stmt.Function method : klass.methods) {
+            if (method.name.lexeme.equals("init")) return method;
+        }
+        return null;
+    }
+
+    // an init made only of this.field = value statements, each setting another field to a value without 'this'
+    private static boolean isPlainInit(Stmt.Function init) {
+        if (init == null) return false;
+        Set<String> fields = new HashSet<>();
+        for (Stmt statement : init.body) {
+            if (!(statement instanceof Stmt.Expression)) return false;
+            Expr expression = ((Stmt.Expression) statement).expression;
+            if (!(expression instanceof Expr.Set)) return false;
+            Expr.Set set = (Expr.Set) expression;
+            if (!(set.object instanceof Expr.This) || !fields.add(set.name.lexeme)) return false;
+            if (usesThis(set.value)) return false;
+        }
+        return true;
+    }
+
+    private static Set<String> fieldsOf(Stmt.Function init) {
+        Set<String> fields = new HashSet<>();
+        for (Stmt statement : init.body) {
+            fields.add(((Expr.Set) ((Stmt.Expression) statement).expression).name.lexeme);
+        }
+        return fields;
+    }
+
+    private static Token fieldName(Expr access) {
+        return access instanceof Expr.Get ? ((Expr.Get) access).name : ((Expr.Set) access).name;
+    }
+
+    // whether the expression mentions this or super, or holds statements (a ternary's branches) that might
+    private static boolean usesThis(Expr expr) {
+        if (expr == null || expr instanceof Expr.Literal || expr instanceof Expr.Variable) return false;
+        if (expr instanceof Expr.Assign) return usesThis(((Expr.Assign) expr).value);
+        if (expr instanceof Expr.Binary) {
+            return usesThis(((Expr.Binary) expr).left) || usesThis(((Expr.Binary) expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            return usesThis(((Expr.Logical) expr).left) || usesThis(((Expr.Logical) expr).right);
+        }
+        if (expr instanceof Expr.Grouping) return usesThis(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) return usesThis(((Expr.Unary) expr).right);
+        if (expr instanceof Expr.Get) return usesThis(((Expr.Get) expr).object);
+        if (expr instanceof Expr.Set) return usesThis(((Expr.Set) expr).object) || usesThis(((Expr.Set) expr).value);
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if (usesThis(call.callee)) return true;
+            for (Expr argument : call.arguments) {
+                if (usesThis(argument)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // the local declaration the name refers to from here, null for a global
+    private Candidate lookUp(Token name) {
+        for (Map<String, Candidate> scope : scopes) {
+            Candidate candidate = scope.get(name.lexeme);
+            if (candidate != null) return candidate;
+        }
+        return null;
+    }
+
+    private void declare(Token name, Candidate candidate) {
+        if (!scopes.isEmpty()) scopes.peek().put(name.lexeme, candidate);
+    }
+
+    // a use of the var that isn't an access of one of its fields from its own function
+    private void escape(Token name) {
+        Candidate candidate = lookUp(name);
+        if (candidate != null && candidate != NOT_REPLACED) candidate.escapes = true;
+    }
+
+    // a get or set of a field of the expression's object
+    private void access(Expr object, Expr access) {
+        if (object instanceof Expr.Variable) {
+            Candidate candidate = lookUp(((Expr.Variable) object).name);
+            if (candidate != null && candidate != NOT_REPLACED) {
+                if (candidate.functionDepth == functionDepth) {
+                    candidate.accesses.add(access);
+                } else {
+                    // captured by a closure
+                    candidate.escapes = true;
+                }
+            }
+            return;
+        }
+        walk(object);
+    }
+
+    private void walk(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void walk(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            walk(statement);
+        }
+    }
+
+    private void function(Stmt.Function function) {
+        functionDepth++;
+        scopes.push(new HashMap<>());
+        for (Token param : function.params) {
+            declare(param, NOT_REPLACED);
+        }
+        walk(function.body);
+        scopes.pop();
+        functionDepth--;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        walk(stmt.statements);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name, NOT_REPLACED);
+        walk(stmt.superclass);
+        scopes.push(new HashMap<>());
+        for (Stmt.Function method : stmt.methods) {
+            function(method);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, NOT_REPLACED);
+        function(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        walk(stmt.condition);
+        walk(stmt.thenBranch);
+        walk(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        walk(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        walk(stmt.initializer);
+        declare(stmt.name, candidate(stmt));
+        return null;
+    }
+
+    // the var's candidate when a function initializes it by calling a replaceable class, NOT_REPLACED otherwise
+    private Candidate candidate(Stmt.Var stmt) {
+        if (functionDepth == 0 || !(stmt.initializer instanceof Expr.Call)) return NOT_REPLACED;
+        Expr.Call call = (Expr.Call) stmt.initializer;
+        if (!(call.callee instanceof Expr.Variable)) return NOT_REPLACED;
+        Token name = ((Expr.Variable) call.callee).name;
+        Stmt.Class klass = classes.get(name.lexeme);
+        if (klass == null || lookUp(name) != null || tables.isLocal(call.callee)) return NOT_REPLACED;
+        if (call.arguments.size() != init(klass).params.size()) return NOT_REPLACED;
+
+        Candidate candidate = new Candidate(stmt, klass, functionDepth);
+        candidates.add(candidate);
+        return candidate;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        walk(stmt.condition);
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (!tables.isLocal(expr)) assigned.add(expr.name.lexeme);
+        escape(expr.name);
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        walk(expr.condition);
+        walk(expr.trueCase);
+        walk(expr.falseCase);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        walk(expr.callee);
+        for (Expr argument : expr.arguments) {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        access(expr.object, expr);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        walk(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        access(expr.object, expr);
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        escape(expr.name);
+        return null;
+    }
+}
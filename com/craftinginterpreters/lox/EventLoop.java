@@ -0,0 +1,296 @@
+// The event loop of a run, for scripts that wait on time or slow input without polling: timers set with
+// setTimeout(fn, ms) and setInterval(fn, ms) (both return an id for clearTimer), and reads whose results come back
+// as callbacks, readFile(path, fn) with fn(text, error) and readLines(path, fn) with fn(line, error) per line and
+// fn(nil, nil) at the end ("-" reads stdin, and a named pipe is read as its writers write).
+//
+// It runs once the script's top level finished, on that thread, and calls back one callback at a time, so
+// callbacks never race each other. Between them it blocks until the next timer is due or a read hands something
+// back, so a waiting script uses no CPU. The run ends once no timer or read is pending. A runtime error in a
+// callback ends it too, like one in the top level.
+//
+// The reads happen off the loop. A file is read on an AsynchronousFileChannel. Pipes and stdin can't be polled on
+// the JDK (only sockets are selectable), so each readLines source gets a reader thread (see Threads) that blocks on
+// it, at most MAX_QUEUED_LINES ahead of the callbacks.
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+final class EventLoop {
+    // lines a reader thread reads ahead of the callbacks
+    private static final int MAX_QUEUED_LINES = 1024;
+    // stands in for the call site when a native passed as a callback fails
+    private static final Token CALLBACK = new Token(TokenType.IDENTIFIER, "callback", null, 0);
+
+    private final RunContext context;
+    // the rest is guarded by this, as tasks may set timers and reads hand back from their own threads
+    // by when they're due, then in the order they were set
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(
+            Comparator.<Timer>comparingLong(timer -> timer.due).thenComparingLong(timer -> timer.sequence));
+    private final Map<Double, Timer> ids = new HashMap<>();
+    // callbacks the reads handed back, in the order they came
+    private final ArrayDeque<Runnable> ready = new ArrayDeque<>();
+    // reads that haven't made their last callback yet
+    private int reads = 0;
+    private long sequence = 0;
+    private double nextId = 1;
+    private boolean stopped = false;
+    // started on the first readLines
+    private ExecutorService readers;
+
+    EventLoop(RunContext context) {
+        this.context = context;
+    }
+
+    private static final class Timer {
+        final double id;
+        final Interpreter interpreter;
+        final LoxCallable callback;
+        // 0 for a timeout
+        final long interval;
+        long due;
+        long sequence;
+
+        Timer(double id, Interpreter interpreter, LoxCallable callback, long interval) {
+            this.id = id;
+            this.interpreter = interpreter;
+            this.callback = callback;
+            this.interval = interval;
+        }
+    }
+
+    // the setTimeout and setInterval natives
+    synchronized double setTimer(Interpreter interpreter, Object callback, Object millis, boolean repeat) {
+        LoxCallable function = callback(callback, 0, repeat ? "setInterval" : "setTimeout");
+        running();
+        if (!(millis instanceof Double) || !((Double) millis >= 0)) {
+            throw new Natives.Failure("A timer's delay must be a non-negative number of milliseconds.");
+        }
+        long delay = (long) ((Double) millis * 1_000_000);
+        // an interval fires at most once a millisecond, so setInterval(fn, 0) doesn't spin
+        Timer timer = new Timer(nextId++, interpreter, function, repeat ? Math.max(delay, 1_000_000) : 0);
+        timer.due = System.nanoTime() + delay;
+        schedule(timer);
+        ids.put(timer.id, timer);
+        return timer.id;
+    }
+
+    // the clearTimer native, a no-op for a timer that already fired or was cleared
+    synchronized void clearTimer(Object id) {
+        Timer timer = ids.remove(id);
+        if (timer != null) timers.remove(timer);
+    }
+
+    private void schedule(Timer timer) {
+        timer.sequence = sequence++;
+        timers.add(timer);
+        notifyAll();
+    }
+
+    // the readFile native
+    void readFile(Interpreter interpreter, Object path, Object callback) {
+        LoxCallable function = callback(callback, 2, "readFile");
+        Path file = path(path, "readFile");
+        synchronized (this) {
+            running();
+            reads++;
+        }
+
+        AsynchronousFileChannel channel;
+        ByteBuffer buffer;
+        try {
+            channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("too large");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+        } catch (IOException error) {
+            post(interpreter, function, true, null, problem(path, error));
+            return;
+        }
+        channel.read(buffer, 0, channel, new CompletionHandler<Integer, AsynchronousFileChannel>() {
+            @Override
+            public void completed(Integer count, AsynchronousFileChannel channel) {
+                if (count >= 0 && buffer.hasRemaining()) {
+                    channel.read(buffer, buffer.position(), channel, this);
+                    return;
+                }
+                close(channel);
+                String text = new String(buffer.array(), 0, buffer.position(), Charset.defaultCharset());
+                post(interpreter, function, true, text, null);
+            }
+
+            @Override
+            public void failed(Throwable error, AsynchronousFileChannel channel) {
+                close(channel);
+                post(interpreter, function, true, null, "Can't read '" + path + "': " + error.getMessage());
+            }
+        });
+    }
+
+    // the readLines native
+    void readLines(Interpreter interpreter, Object path, Object callback) {
+        LoxCallable function = callback(callback, 2, "readLines");
+        Path file = "-".equals(path) ? null : path(path, "readLines");
+        synchronized (this) {
+            running();
+            reads++;
+            if (readers == null) readers = Threads.perTask("lox-read");
+        }
+
+        Semaphore queued = new Semaphore(MAX_QUEUED_LINES);
+        readers.execute(() -> {
+            try {
+                BufferedReader reader = file == null
+                        ? context.in()
+                        : Files.newBufferedReader(file, Charset.defaultCharset());
+                try {
+                    for (String line; (line = reader.readLine()) != null; ) {
+                        queued.acquire();
+                        if (!post(interpreter, function, false, line, null, queued::release)) return;
+                    }
+                } finally {
+                    // (stdin stays open for the prompt and the Input native)
+                    if (file != null) reader.close();
+                }
+                post(interpreter, function, true, null, null);
+            } catch (IOException error) {
+                post(interpreter, function, true, null, problem(path, error));
+            } catch (InterruptedException error) {
+                // the loop stopped
+            }
+        });
+    }
+
+    // a task may still set a timer or start a read after the loop stopped on a runtime error
+    private void running() {
+        if (stopped) throw new Natives.Failure("The event loop has stopped.");
+    }
+
+    private LoxCallable callback(Object callback, int arity, String name) {
+        if (!(callback instanceof LoxCallable) || ((LoxCallable) callback).arity() != arity) {
+            throw new Natives.Failure(name + " expects a function with " + arity
+                    + (arity == 1 ? " parameter." : " parameters."));
+        }
+        return (LoxCallable) callback;
+    }
+
+    private Path path(Object path, String name) {
+        if (!(path instanceof String)) throw new Natives.Failure(name + " expects a path.");
+        try {
+            return context.directory.resolve((String) path);
+        } catch (InvalidPathException error) {
+            throw new Natives.Failure("Bad path '" + path + "'.");
+        }
+    }
+
+    private static String problem(Object path, IOException error) {
+        if (error instanceof NoSuchFileException) return "Can't find '" + path + "'.";
+        return "Can't read '" + path + "': " + error.getMessage();
+    }
+
+    private static void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException error) {
+            // read already
+        }
+    }
+
+    private boolean post(Interpreter interpreter, LoxCallable callback, boolean last, Object value, Object error) {
+        return post(interpreter, callback, last, value, error, () -> { });
+    }
+
+    // hands a read's callback to the loop, false once the loop stopped (and no longer counts the read)
+    private synchronized boolean post(Interpreter interpreter, LoxCallable callback, boolean last, Object value,
+                                      Object error, Runnable done) {
+        if (stopped) {
+            if (last) reads--;
+            return false;
+        }
+        ready.add(() -> {
+            synchronized (this) {
+                if (last) reads--;
+            }
+            done.run();
+            call(interpreter, callback, Arrays.asList(value, error));
+        });
+        notifyAll();
+        return true;
+    }
+
+    // calls back until nothing is pending; a runtime error in a callback is left to the caller
+    void run() {
+        try {
+            for (Runnable callback; (callback = next()) != null; ) {
+                callback.run();
+            }
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+    }
+
+    // the next callback to run, waiting for it; null once nothing is pending
+    private synchronized Runnable next() throws InterruptedException {
+        for (;;) {
+            long now = System.nanoTime();
+            Timer timer = timers.peek();
+            if (timer != null && timer.due - now <= 0) {
+                timers.poll();
+                if (timer.interval > 0) {
+                    // (one that fell behind skips the runs it missed rather than catching up in a burst)
+                    timer.due = Math.max(timer.due + timer.interval, now);
+                    schedule(timer);
+                } else {
+                    ids.remove(timer.id);
+                }
+                return () -> call(timer.interpreter, timer.callback, Collections.emptyList());
+            }
+            if (!ready.isEmpty()) return ready.poll();
+            if (timer == null && reads == 0) return null;
+
+            if (timer == null) {
+                wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, timer.due - now);
+            }
+        }
+    }
+
+    private void call(Interpreter interpreter, LoxCallable callback, List<Object> arguments) {
+        interpreter.call(callback, arguments, CALLBACK);
+    }
+
+    private synchronized void stop() {
+        stopped = true;
+        timers.clear();
+        ids.clear();
+        ready.clear();
+        if (readers != null) readers.shutdownNow();
+    }
+}
@@ -0,0 +1,212 @@
+// Resolves scopes while the Parser builds the tree, so the front end is a single pass instead of parse + Resolver.
+// Same rules and error messages as Resolver, with the scope stack kept in flat arrays of interned names.
+// Errors are held back until parsing is done, since Resolver never runs over a tree with syntax errors.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class FusedResolver {
+    // where the depths go
+    private final SideTables tables;
+    private final RunContext context;
+
+    // every variable of every open scope, innermost last
+    private String[] names = new String[64];
+    private boolean[] defined = new boolean[64];
+    private int count = 0;
+    // index in names of the first variable of each open scope
+    private int[] scopeStarts = new int[16];
+    private int depth = 0;
+
+    private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+
+    private final List<Token> errorTokens = new ArrayList<>();
+    private final List<String> errorMessages = new ArrayList<>();
+
+    enum FunctionType {
+        NONE, FUNCTION, INITIALIZER, METHOD
+    }
+
+    enum ClassType {
+        NONE, CLASS, SUBCLASS
+    }
+
+    FusedResolver(SideTables tables, RunContext context) {
+        this.tables = tables;
+        this.context = context;
+    }
+
+    // reports the resolution errors held so far, called when the parser got that far without errors
+    void reportErrors() {
+        for (int i = 0; i < errorTokens.size(); i++) {
+            context.error(errorTokens.get(i), errorMessages.get(i));
+        }
+        errorTokens.clear();
+        errorMessages.clear();
+    }
+
+    private void error(Token token, String message) {
+        errorTokens.add(token);
+        errorMessages.add(message);
+    }
+
+    void beginScope() {
+        if (depth == scopeStarts.length) scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        scopeStarts[depth++] = count;
+    }
+
+    void endScope() {
+        int start = scopeStarts[--depth];
+        Arrays.fill(names, start, count, null);
+        count = start;
+    }
+
+    void declare(Token name) {
+        if (depth == 0)
+            return;
+
+        String interned = name.lexeme.intern();
+        if (find(interned, scopeStarts[depth - 1]) >= 0) {
+            error(name, "Already a variable with this name in this scope");
+        }
+        push(interned, false);
+    }
+
+    void define(Token name) {
+        if (depth == 0)
+            return;
+
+        int index = find(name.lexeme.intern(), scopeStarts[depth - 1]);
+        if (index >= 0) defined[index] = true;
+    }
+
+    // this and super
+    private void defineKeyword(String keyword) {
+        push(keyword, true);
+    }
+
+    private void push(String name, boolean isDefined) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            defined = Arrays.copyOf(defined, count * 2);
+        }
+        names[count] = name;
+        defined[count] = isDefined;
+        count++;
+    }
+
+    // innermost variable with that (interned) name at or above the given index, -1 if none
+    private int find(String name, int from) {
+        for (int i = count - 1; i >= from; i--) {
+            if (names[i] == name) return i;
+        }
+        return -1;
+    }
+
+    void resolveVariable(Expr.Variable expr) {
+        if (depth > 0) {
+            int index = find(expr.name.lexeme.intern(), scopeStarts[depth - 1]);
+            if (index >= 0 && !defined[index]) {
+                error(expr.name, "Can't read local variable in its own initializer.");
+            }
+        }
+        resolveLocal(expr, expr.name);
+    }
+
+    // records the number of scopes between the use and the declaration, nothing for globals
+    void resolveLocal(Expr expr, Token name) {
+        int index = find(name.lexeme.intern(), 0);
+        if (index < 0) return;
+
+        int scope = depth - 1;
+        while (scopeStarts[scope] > index) scope--;
+        tables.resolve(expr, depth - 1 - scope);
+    }
+
+    // a function declaration binds its name in the enclosing scope, methods don't
+    FunctionType beginFunction(Token name, String kind) {
+        FunctionType type = FunctionType.FUNCTION;
+        if (kind.equals("function")) {
+            declare(name);
+            define(name);
+        } else {
+            type = name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+        }
+
+        FunctionType enclosing = currentFunction;
+        currentFunction = type;
+        beginScope();
+        return enclosing;
+    }
+
+    void parameter(Token name) {
+        declare(name);
+        define(name);
+    }
+
+    void endFunction(FunctionType enclosing) {
+        endScope();
+        currentFunction = enclosing;
+    }
+
+    ClassType beginClass(Token name) {
+        ClassType enclosing = currentClass;
+        currentClass = ClassType.CLASS;
+        declare(name);
+        define(name);
+        return enclosing;
+    }
+
+    void superclass(Token name, Expr.Variable superclass) {
+        if (name.lexeme.equals(superclass.name.lexeme)) {
+            error(superclass.name, "A class can't inherit from itself.");
+        }
+        currentClass = ClassType.SUBCLASS;
+        resolveLocal(superclass, superclass.name);
+
+        beginScope();
+        defineKeyword("super");
+    }
+
+    // called at the '{' of the class body
+    void beginMethods() {
+        beginScope();
+        defineKeyword("this");
+    }
+
+    void endClass(ClassType enclosing, boolean hasSuperclass) {
+        endScope();
+        if (hasSuperclass) endScope();
+        currentClass = enclosing;
+    }
+
+    void checkReturn(Token keyword, boolean hasValue) {
+        if (currentFunction == FunctionType.NONE) {
+            error(keyword, "Can't return from top-level code.");
+        }
+        if (hasValue && currentFunction == FunctionType.INITIALIZER) {
+            error(keyword, "Can't return a value from an initializer.");
+        }
+    }
+
+    void resolveThis(Expr.This expr) {
+        if (currentClass == ClassType.NONE) {
+            error(expr.keyword, "Can't use 'this' outside of a class");
+            return;
+        }
+        resolveLocal(expr, expr.keyword);
+    }
+
+    void resolveSuper(Expr.Super expr) {
+        if (currentClass == ClassType.NONE) {
+            error(expr.keyword, "Can't use 'super' outside of a class");
+        } else if (currentClass != ClassType.SUBCLASS) {
+            error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+        }
+        resolveLocal(expr, expr.keyword);
+    }
+}
@@ -0,0 +1,294 @@
+// Snapshot of the interpreter after a prelude ran: the prelude's resolved program (in ProgramFormat) and every
+// object reachable from globals. Restoring an image defines the same globals again without running the prelude.
+//
+// The heap is written as a table of objects, shells first and contents second, so identity and cycles survive:
+// each shell holds only what its constructor needs (an environment's enclosing one, a function's declaration
+// offset and closure, a class's name and superclass, an instance's class), and those always have lower ids.
+// The contents (variables, methods, fields) then refer to any object by id. Id 0 is the globals environment.
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class HeapImage {
+    // bump whenever the AST, the arena layout or the heap layout changes
+    private static final String FORMAT = "jloximg-2";
+    private static final int MAGIC = 0x4a4c5849;
+
+    // kinds of heap objects
+    private static final byte GLOBALS = 0;
+    private static final byte ENVIRONMENT = 1;
+    private static final byte FUNCTION = 2;
+    private static final byte CLASS = 3;
+    private static final byte INSTANCE = 4;
+    private static final byte NATIVE = 5;
+
+    // value tag of a heap object, after those of ProgramFormat
+    private static final byte REF = 5;
+
+    // writes the image of a program the interpreter just ran
+    static void save(Path path, Program program, Interpreter interpreter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        ProgramFormat.writeString(out, FORMAT);
+        AstArena.Encoder encoder = ProgramFormat.writeProgram(out, program);
+        new Writer(out, encoder).write(interpreter.globals);
+        ProgramFormat.writeChecksum(bytes);
+
+        // moved in place, so a half written image never replaces a good one
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // defines the image's globals in the interpreter, which is left untouched if the image is unusable
+    static void load(Path path, Interpreter interpreter) throws IOException {
+        DataInputStream in = ProgramFormat.checked(Files.readAllBytes(path));
+        if (in == null) throw new IOException("Corrupt image '" + path + "'.");
+        if (in.readInt() != MAGIC || !ProgramFormat.readString(in).equals(FORMAT)) {
+            throw new IOException("'" + path + "' isn't an image of this version of jlox.");
+        }
+
+        ProgramFormat.Decoded decoded = ProgramFormat.readProgram(in);
+        Map<String, Object> globals;
+        try {
+            globals = new Reader(in, decoded, interpreter.globals).read();
+        } catch (RuntimeException error) {
+            throw new IOException("Bad image: " + error.getMessage());
+        }
+        if (in.available() != 0) throw new IOException("Bad image: trailing bytes.");
+
+        interpreter.install(decoded.program);
+        for (Map.Entry<String, Object> global : globals.entrySet()) {
+            interpreter.globals.define(global.getKey(), global.getValue());
+        }
+    }
+
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final AstArena.Encoder encoder;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final List<Object> objects = new ArrayList<>();
+        // objects whose contents haven't been looked at yet
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+        Writer(DataOutputStream out, AstArena.Encoder encoder) {
+            this.out = out;
+            this.encoder = encoder;
+        }
+
+        void write(Environment globals) throws IOException {
+            id(globals);
+            while (!pending.isEmpty()) {
+                for (Object value : contents(pending.poll()).values()) {
+                    if (!ProgramFormat.isConstant(value)) id(value);
+                }
+            }
+
+            out.writeInt(objects.size());
+            for (Object object : objects) {
+                writeShell(object);
+            }
+            for (Object object : objects) {
+                Map<String, Object> contents = contents(object);
+                out.writeInt(contents.size());
+                for (Map.Entry<String, Object> entry : contents.entrySet()) {
+                    ProgramFormat.writeString(out, entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+        }
+
+        // what the constructor of the object needs gets its id first
+        private int id(Object object) throws IOException {
+            Integer id = ids.get(object);
+            if (id != null) return id;
+
+            if (object instanceof Environment) {
+                Environment enclosing = ((Environment) object).enclosing;
+                if (enclosing != null) id(enclosing);
+            } else if (object instanceof ArenaFunction) {
+                throw new IOException("Can't save the functions of an --arena run.");
+            } else if (object instanceof LoxFunction) {
+                id(((LoxFunction) object).closure);
+            } else if (object instanceof LoxClass) {
+                LoxClass superclass = ((LoxClass) object).superclass;
+                if (superclass != null) id(superclass);
+            } else if (object instanceof LoxInstance) {
+                id(((LoxInstance) object).klass());
+            } else if (!(object instanceof Natives.Native)) {
+                throw new IOException("Can't save " + object + ".");
+            }
+
+            id = objects.size();
+            ids.put(object, id);
+            objects.add(object);
+            pending.add(object);
+            return id;
+        }
+
+        private void writeShell(Object object) throws IOException {
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                if (environment.enclosing == null) {
+                    if (ids.get(object) != 0) throw new IOException("Can't save a second global environment.");
+                    out.writeByte(GLOBALS);
+                } else {
+                    out.writeByte(ENVIRONMENT);
+                    out.writeInt(ids.get(environment.enclosing));
+                }
+            } else if (object instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) object;
+                int offset = encoder.offsetOf(function.declaration);
+                if (offset < 0) throw new IOException("Can't save " + function + ", declared outside the program.");
+                out.writeByte(FUNCTION);
+                out.writeInt(offset);
+                out.writeInt(ids.get(function.closure));
+                out.writeBoolean(function.isInitializer);
+            } else if (object instanceof LoxClass) {
+                LoxClass klass = (LoxClass) object;
+                out.writeByte(CLASS);
+                ProgramFormat.writeString(out, klass.name);
+                out.writeInt(klass.superclass == null ? -1 : ids.get(klass.superclass));
+            } else if (object instanceof LoxInstance) {
+                out.writeByte(INSTANCE);
+                out.writeInt(ids.get(((LoxInstance) object).klass()));
+            } else {
+                out.writeByte(NATIVE);
+                ProgramFormat.writeString(out, ((Natives.Native) object).name);
+            }
+        }
+
+        // the named references out of an object: variables, methods or fields
+        private Map<String, Object> contents(Object object) {
+            if (object instanceof Environment) return ((Environment) object).values();
+            if (object instanceof LoxClass) return new LinkedHashMap<>(((LoxClass) object).methods());
+            if (object instanceof LoxInstance) return ((LoxInstance) object).fields();
+            return new HashMap<>();
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (ProgramFormat.isConstant(value)) {
+                ProgramFormat.writeValue(out, value);
+            } else {
+                out.writeByte(REF);
+                out.writeInt(ids.get(value));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final ProgramFormat.Decoded program;
+        private final Environment globals;
+        private Object[] objects;
+        // the method tables handed to the classes, filled in with the contents
+        private final Map<LoxClass, Map<String, LoxFunction>> methods = new IdentityHashMap<>();
+        // the global variables, only defined once the whole image was read
+        private final Map<String, Object> variables = new LinkedHashMap<>();
+
+        Reader(DataInputStream in, ProgramFormat.Decoded program, Environment globals) {
+            this.in = in;
+            this.program = program;
+            this.globals = globals;
+        }
+
+        Map<String, Object> read() throws IOException {
+            objects = new Object[ProgramFormat.readCount(in, 1)];
+            for (int id = 0; id < objects.length; id++) {
+                objects[id] = readShell(id);
+            }
+
+            for (Object object : objects) {
+                for (int i = ProgramFormat.readCount(in, 5); i > 0; i--) {
+                    String name = ProgramFormat.readString(in);
+                    Object value = readValue();
+                    if (object == globals) {
+                        variables.put(name, value);
+                    } else if (object instanceof Environment) {
+                        ((Environment) object).define(name, value);
+                    } else if (object instanceof LoxClass) {
+                        if (!(value instanceof LoxFunction)) throw new IOException("Bad method '" + name + "'.");
+                        methods.get(object).put(name, (LoxFunction) value);
+                    } else if (object instanceof LoxInstance) {
+                        ((LoxInstance) object).set(name, value);
+                    } else {
+                        throw new IOException("Bad contents of object " + object + ".");
+                    }
+                }
+            }
+            return variables;
+        }
+
+        private Object readShell(int id) throws IOException {
+            byte kind = in.readByte();
+            switch (kind) {
+                case GLOBALS:
+                    if (id != 0) throw new IOException("Bad globals at " + id + ".");
+                    return globals;
+                case ENVIRONMENT:
+                    return new Environment(reference(in.readInt(), id, Environment.class));
+                case FUNCTION: {
+                    Stmt.Function declaration = program.node(in.readInt(), Stmt.Function.class);
+                    Environment closure = reference(in.readInt(), id, Environment.class);
+                    return new LoxFunction(declaration, closure, in.readBoolean());
+                }
+                case CLASS: {
+                    String name = ProgramFormat.readString(in);
+                    int superclass = in.readInt();
+                    Map<String, LoxFunction> table = new HashMap<>();
+                    LoxClass klass = new LoxClass(name,
+                            superclass < 0 ? null : reference(superclass, id, LoxClass.class), table);
+                    methods.put(klass, table);
+                    return klass;
+                }
+                case INSTANCE:
+                    return new LoxInstance(reference(in.readInt(), id, LoxClass.class), globals.context);
+                case NATIVE: {
+                    String name = ProgramFormat.readString(in);
+                    LoxCallable callable = Natives.create(name);
+                    if (callable == null) throw new IOException("Unknown native '" + name + "'.");
+                    return callable;
+                }
+                default:
+                    throw new IOException("Bad object kind " + kind + ".");
+            }
+        }
+
+        // an object the shell being read depends on, which has to come before it
+        private <T> T reference(int id, int before, Class<T> type) throws IOException {
+            if (id < 0 || id >= before || !type.isInstance(objects[id])) {
+                throw new IOException("Bad reference to object " + id + ".");
+            }
+            return type.cast(objects[id]);
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            if (tag != REF) return ProgramFormat.readValue(in, tag);
+
+            int id = in.readInt();
+            if (id < 0 || id >= objects.length) throw new IOException("Bad reference to object " + id + ".");
+            return objects[id];
+        }
+    }
+}
@@ -1,68 +1,140 @@
 package com.craftinginterpreters.lox;
 
-import java.io.Console;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Pattern;
 
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private boolean isPrompt = false;
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // where this run prints and reports to
+    final RunContext context;
+    final Environment globals;
+    private Environment environment;
+    // the interpreter's own, or those of the one Program it shares them with
+    private final SideTables tables;
+    // what this execution changed of a Baseline, null for an interpreter of its own globals
+    private final Overlay overlay;
+    // returned by binary() for a number that was left unboxed in rawNumber
+    private static final Object RAW = new Object();
+    private double rawNumber;
+
+    private static final int SMALL_MIN = -128;
+    private static final int SMALL_MAX = 1023;
+    private static final Double[] SMALL_NUMBERS = new Double[SMALL_MAX - SMALL_MIN + 1];
+    static {
+        for (int i = SMALL_MIN; i <= SMALL_MAX; i++) {
+            SMALL_NUMBERS[i - SMALL_MIN] = (double) i;
+        }
+    }
+
+    // remaining blocks/loop iterations when sandboxed, -1 means unlimited
+    private long fuel = -1;
+    // epoch of the parallel operation this interpreter runs callbacks for, -1 when it may assign anything
+    int confinedTo = -1;
+
+    // thrown when a sandboxed run uses up its fuel
+    static class OutOfFuel extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OutOfFuel() {
+            super(null, null, false, false);
+        }
+    }
 
     private final String[] builtInFunc= {"Input", "Clock"};
 
-    // stuffing native function in the global scope
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+    // the natives are defined in globals on first use, see Natives
+    Interpreter(RunContext context) {
+        this.context = context;
+        this.globals = new Environment(context);
+        this.environment = globals;
+        this.tables = new SideTables();
+        this.overlay = null;
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    // an interpreter for one compiled program, reading its frozen side tables instead of copying them
+    Interpreter(RunContext context, Program program) {
+        this.context = context;
+        this.globals = new Environment(context);
+        this.environment = globals;
+        this.tables = program.tables;
+        this.overlay = null;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    // an execution of a Baseline's program, starting from its frozen globals, see Baseline.interpreter
+    Interpreter(RunContext context, Baseline baseline) {
+        this.context = context;
+        this.overlay = new Overlay(baseline, context);
+        this.globals = overlay.globals;
+        this.environment = globals;
+        this.tables = baseline.program.tables;
+    }
 
-        // My Contribution for user input
-        globals.define("Input", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+    // another thread of the same run: same globals, side tables and overlay, its own current environment
+    Interpreter(Interpreter parent) {
+        this.context = parent.context;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.tables = parent.tables;
+        this.overlay = parent.overlay;
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Console console = System.console();
-                String text = console.readLine();
+    // forgets what this execution of a Baseline changed, so it can run again from the frozen globals
+    void reset() {
+        if (overlay == null) throw new IllegalStateException("Only an execution of a Baseline can be reset.");
+        overlay.reset();
+        environment = globals;
+    }
 
-                Pattern pattern = Pattern.compile("[^0-9.]"); // !0-9 and .
-                if (pattern.matcher(text).find()) { // if input text found any that's not 0-9 and . then return as
-                                                    // String
-                    return text;
-                }
-                // else return as Double;
-                else
-                    return Double.parseDouble(loseDotZero(text));
-            }
+    // the interpreter a spawned task runs on
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    // from now on only variables of environments created since the given epoch may be assigned, see Parallel
+    void confine(int epoch) {
+        this.confinedTo = epoch;
+    }
+
+    void checkConfined(Environment target, Token name) {
+        if (target.epoch < confinedTo) {
+            throw new RuntimeError(name, "Can't assign to captured variable '" + name.lexeme
+                    + "' in a parallel callback.");
+        }
+    }
+
+    // the same for the fields of instances created before the parallel operation
+    void checkConfined(LoxInstance target, Token name) {
+        if (target.epoch < confinedTo) {
+            throw new RuntimeError(name, "Can't set field '" + name.lexeme
+                    + "' of a captured instance in a parallel callback.");
+        }
+    }
+
+    // the tables the front end fills in for this interpreter
+    SideTables tables() {
+        return tables;
+    }
+
+    // adds the program's side tables to this interpreter's own (a no-op for the program it was created for)
+    void install(Program program) {
+        if (program.tables != tables) tables.addAll(program.tables);
+    }
+
+    void interpret(Program program) {
+        install(program);
+        interpret(program.statements, false);
+    }
+
+    // runs the program's statements, leaving a runtime error to the caller instead of reporting it
+    void execute(Program program) {
+        install(program);
+        for (Stmt statement : program.statements) {
+            execute(statement);
+        }
     }
 
     void interpret(List<Stmt> statements, boolean prompt) {
@@ -72,11 +144,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            context.runtimeError(error);
         }
     }
 
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null)
             return "nil";
 
@@ -115,20 +187,52 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // evaluating set operation of class
     @Override
     public Object visitSetExpr (Expr.Set expr){
+        Object value = set(expr);
+        return value == RAW ? box(rawNumber) : value;
+    }
+
+    // returns RAW with the value in rawNumber when a number from arithmetic was stored unboxed
+    private Object set(Expr.Set expr) {
+        if (tables.hasScalars()) {
+            String local = tables.scalarField(expr);
+            if (local != null && isReplaced(expr.object, local)) return setScalarField(expr, local);
+        }
         Object object = evaluate(expr.object);
 
         if (!(object instanceof LoxInstance)) {
             throw new RuntimeError(expr.name, "Only instances have fields");
         }
 
-        Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        Object value = operand(expr.value);
+        double number = rawNumber;
+        LoxInstance instance = (LoxInstance) object;
+        if (confinedTo >= 0) checkConfined(instance, expr.name);
+        if (instance.frozen) instance = unfrozen(instance, expr.name);
+        if (value == RAW) {
+            instance.setNumber(expr.name, number);
+            return raw(number);
+        }
+        instance.set(expr.name, value);
+        return value;
+    }
+
+    // sets the local standing in for a field of a replaced instance, see EscapeAnalysis
+    private Object setScalarField(Expr.Set expr, String local) {
+        Object value = operand(expr.value);
+        double number = rawNumber;
+        Environment target = environment.ancestor(tables.depth(expr.object));
+        if (target.frozen) target = unfrozen(target, expr.name);
+        if (value == RAW) {
+            target.defineNumber(local, number);
+            return raw(number);
+        }
+        target.define(local, value);
         return value;
     }
 
     @Override  
     public Object visitSuperExpr (Expr.Super expr){
-        int distance = locals.get(expr);
+        int distance = tables.depth(expr);
         LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
 
         LoxInstance object = (LoxInstance) environment.getAt(distance -1, "this");
@@ -150,14 +254,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // evaluating unary expression
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
+        return unaryOperation(expr.operator, evaluate(expr.right));
+    }
 
-        switch (expr.operator.type) {
+    Object unaryOperation(Token operator, Object right) {
+        switch (operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
                 // check object type
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 return -(double) right;
         }
 
@@ -174,15 +280,67 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // accessing resolved variable
     private Object lookUpVariable(Token name, Expr expr){
-        Integer distance = locals.get(expr);
+        Integer distance = tables.depth(expr);
         if (distance != null){
-            return environment.getAt(distance, name.lexeme);
+            if (overlay == null) return environment.getAt(distance, name.lexeme);
+            Environment target = environment.ancestor(distance);
+            if (target.frozen) target = overlay.read(target);
+            return target.getAt(0, name.lexeme);
         }
         else {
             return globals.get(name);
         }
     }
 
+    // like lookUpVariable, but a number assigned from arithmetic comes back as its NumberSlot
+    private Object storedVariable(Token name, Expr expr){
+        Integer distance = tables.depth(expr);
+        if (distance != null){
+            if (overlay == null) return environment.storedAt(distance, name.lexeme);
+            Environment target = environment.ancestor(distance);
+            if (target.frozen) target = overlay.read(target);
+            return target.storedAt(0, name.lexeme);
+        }
+        else {
+            return globals.lookUp(name);
+        }
+    }
+
+    // the scope of the variable as this execution reads it
+    private Environment scope(Expr variable){
+        Environment target = environment.ancestor(tables.depth(variable));
+        if (target.frozen && overlay != null) target = overlay.read(target);
+        return target;
+    }
+
+    // whether the var's instance was replaced by locals, which defineScalar doesn't do when the var's class wasn't
+    // the one analyzed after all
+    private boolean isReplaced(Expr variable, String local) {
+        Environment scope = scope(variable);
+        return scope.storedAt(0, local) != null || scope.defines(local);
+    }
+
+    // this execution's copy of a frozen scope, to write to
+    private Environment unfrozen(Environment frozen, Token name) {
+        if (overlay == null) {
+            throw new RuntimeError(name, "Can't assign to '" + name.lexeme + "', it was frozen into a baseline.");
+        }
+        return overlay.write(frozen);
+    }
+
+    private LoxInstance unfrozen(LoxInstance frozen, Token name) {
+        if (overlay == null) {
+            throw new RuntimeError(name, "Can't set field '" + name.lexeme + "', its instance was frozen into a baseline.");
+        }
+        return overlay.write(frozen);
+    }
+
+    // the fields of an instance as this execution sees them
+    Map<String, Object> fields(LoxInstance instance) {
+        if (instance.frozen && overlay != null) return overlay.read(instance).fields();
+        return instance.fields();
+    }
+
     // for unary
     private void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double)
@@ -197,7 +355,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operand must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    boolean isTruthy(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
@@ -228,13 +386,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    // Resolver hands the number (depth between variable found scope and current scope)
-    void resolve (Expr expr, int depth){
-        locals.put(expr, depth);
+    void refuel(long fuel){
+        this.fuel = fuel;
+    }
+
+    private void burnFuel(){
+        if (fuel >= 0 && --fuel < 0) throw new OutOfFuel();
     }
 
     // execute block statements
     void executeBlock(List<Stmt> statements, Environment environment) {
+        burnFuel();
         Environment previous = this.environment;
         try {
             // new environment
@@ -242,6 +404,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             for (Stmt statement : statements) {
                 execute(statement);
+
+                // drop references nobody is going to read again, so the GC can reclaim them
+                List<String> dead = tables.released(statement);
+                if (dead != null) {
+                    for (String name : dead) environment.release(name);
+                }
             }
         }
         // restore the previous environment
@@ -271,7 +439,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         environment.define(stmt.name.lexeme, null);
 
         if (stmt.superclass != null){
-            environment = new Environment();
+            environment = new Environment(environment);
             environment.define("super", superclass);
         }
 
@@ -294,11 +462,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // for expression statement
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
-        Object value = evaluate(stmt.expression);
         // Print out expression in REPL [challenge]
         if (stmt.display && isPrompt) {
-            System.out.println(stringify(value));
+            context.out.println(stringify(evaluate(stmt.expression)));
+            return null;
         }
+        // (the value is dropped, so a number it computes needn't be boxed)
+        operand(stmt.expression);
         return null;
     }
 
@@ -315,6 +485,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // for function call
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        if (tables.hasConstants() && tables.isConstant(expr)) return tables.constant(expr);
+
         Object callee = evaluate(expr.callee);
 
         List<Object> arguments = new ArrayList<>();
@@ -322,28 +494,63 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             arguments.add(evaluate(arguement));
         }
 
+        return call(callee, arguments, expr.paren);
+    }
+
+    Object call(Object callee, List<Object> arguments, Token paren) {
         // if not callable callee
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes");
+            throw new RuntimeError(paren, "Can only call functions and classes");
         }
 
         LoxCallable function = (LoxCallable) callee;
 
         // checks if arity (function parameter) matches arguement
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        try {
+            return function.call(this, arguments);
+        } catch (Natives.Failure failure) {
+            throw new RuntimeError(paren, failure.getMessage());
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr){
-        Object object = evaluate(expr.object);
+        if (tables.hasScalars() && tables.scalarField(expr) != null) return NumberSlot.unbox(storedField(expr));
+        return getProperty(evaluate(expr.object), expr.name);
+    }
+
+    // the field as stored, from the local standing in for it when its instance was replaced
+    private Object storedField(Expr.Get expr){
+        String local = tables.hasScalars() ? tables.scalarField(expr) : null;
+        if (local != null) {
+            Environment scope = scope(expr.object);
+            Object stored = scope.storedAt(0, local);
+            if (stored != null || scope.defines(local)) return stored;
+        }
+        return storedProperty(evaluate(expr.object), expr.name);
+    }
+
+    // like getProperty, but a field holding a number from arithmetic comes back as its NumberSlot
+    private Object storedProperty(Object object, Token name){
         if (object instanceof LoxInstance){
-            return ((LoxInstance) object).get(expr.name);
+            LoxInstance instance = (LoxInstance) object;
+            if (instance.frozen && overlay != null) return instance.stored(name, overlay.read(instance));
+            return instance.stored(name, instance);
         }
-        throw new RuntimeError(expr.name, "Only instances have properties");
+        throw new RuntimeError(name, "Only instances have properties");
+    }
+
+    Object getProperty(Object object, Token name){
+        if (object instanceof LoxInstance){
+            LoxInstance instance = (LoxInstance) object;
+            if (instance.frozen && overlay != null) return instance.get(name, overlay.read(instance));
+            return instance.get(name);
+        }
+        throw new RuntimeError(name, "Only instances have properties");
     }
 
     // for if-else
@@ -361,7 +568,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        context.out.println(stringify(value));
         return null;
     }
 
@@ -377,25 +584,104 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // for declaration statement
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        if (tables.hasScalars()) {
+            EscapeAnalysis.Replacement replacement = tables.replacement(stmt);
+            if (replacement != null) {
+                defineScalar(stmt, replacement);
+                return null;
+            }
+        }
+
         Object value = null;
         if (stmt.initializer != null) {
-            value = evaluate(stmt.initializer);
+            value = operand(stmt.initializer);
         }
 
-        for (String keyword : builtInFunc){
-            if (stmt.name.lexeme.equals(keyword)){
-                throw new RuntimeError(stmt.name, "Attempt to overload the built-in function");
+        checkNotBuiltIn(stmt.name);
+
+        if (value == RAW) {
+            environment.defineNumber(stmt.name.lexeme, rawNumber);
+        } else {
+            environment.define(stmt.name.lexeme, value);
+        }
+        return null;
+    }
+
+    // defines the fields of the instance a replaced var would hold as locals of its own, or the instance when the
+    // global no longer holds the class that was analyzed (see EscapeAnalysis)
+    private void defineScalar(Stmt.Var stmt, EscapeAnalysis.Replacement replacement) {
+        Expr.Call call = (Expr.Call) stmt.initializer;
+        Object callee = evaluate(call.callee);
+        LoxFunction init = null;
+        if (callee instanceof LoxClass && ((LoxClass) callee).superclass == null) {
+            init = ((LoxClass) callee).findMethod("init");
+        }
+
+        if (init == null || init.declaration != replacement.init) {
+            List<Object> arguments = new ArrayList<>();
+            for (Expr argument : call.arguments) {
+                arguments.add(evaluate(argument));
             }
+            Object instance = call(callee, arguments, call.paren);
+            checkNotBuiltIn(stmt.name);
+            environment.define(stmt.name.lexeme, instance);
+            return;
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        if (replacement.parameters != null) {
+            // every field is an argument or a literal
+            for (int i = 0; i < call.arguments.size(); i++) {
+                Object value = operand(call.arguments.get(i));
+                for (int field = 0; field < replacement.locals.length; field++) {
+                    if (replacement.parameters[field] == i) defineLocal(environment, replacement.locals[field], value);
+                }
+            }
+            for (int field = 0; field < replacement.locals.length; field++) {
+                if (replacement.parameters[field] < 0) {
+                    environment.define(replacement.locals[field], ((Expr.Literal) replacement.values[field]).value);
+                }
+            }
+        } else {
+            // runs init's assignments in a scope of its parameters
+            Environment parameters = new Environment(init.closure, context);
+            for (int i = 0; i < call.arguments.size(); i++) {
+                parameters.define(init.declaration.params.get(i).lexeme, evaluate(call.arguments.get(i)));
+            }
+            Environment scope = environment;
+            try {
+                environment = parameters;
+                for (int field = 0; field < replacement.locals.length; field++) {
+                    defineLocal(scope, replacement.locals[field], operand(replacement.values[field]));
+                }
+            } finally {
+                environment = scope;
+            }
+        }
+        checkNotBuiltIn(stmt.name);
+    }
+
+    // defines what operand() returned, a RAW number in a NumberSlot
+    private void defineLocal(Environment scope, String name, Object value) {
+        if (value == RAW) {
+            scope.defineNumber(name, rawNumber);
+        } else {
+            scope.define(name, value);
+        }
+    }
+
+    void checkNotBuiltIn(Token name) {
+        for (String keyword : builtInFunc){
+            if (name.lexeme.equals(keyword)){
+                throw new RuntimeError(name, "Attempt to overload the built-in function");
+            }
+        }
     }
 
     // for while loop execution
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
+            burnFuel();
             execute(stmt.body);
         }
         return null;
@@ -404,70 +690,183 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // for assignment statement
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
+        Object value = assign(expr);
+        return value == RAW ? box(rawNumber) : value;
+    }
+
+    // returns RAW with the value in rawNumber when a number from arithmetic was stored unboxed
+    private Object assign(Expr.Assign expr) {
+        Object value = operand(expr.value);
+        double number = rawNumber;
 
-        Integer distance = locals.get(expr);
+        Integer distance = tables.depth(expr);
         if (distance != null){
-            environment.assignAt(distance, expr.name, value);
+            Environment target = environment.ancestor(distance);
+            if (confinedTo >= 0) checkConfined(target, expr.name);
+            if (target.frozen) target = unfrozen(target, expr.name);
+            if (value == RAW) {
+                target.assignNumberAt(0, expr.name, number);
+            } else {
+                target.assignAt(0, expr.name, value);
+            }
         }
         else {
-            globals.assign(expr.name, value);
+            if (confinedTo >= 0) checkConfined(globals, expr.name);
+            if (value == RAW) {
+                globals.assignNumber(expr.name, number);
+            } else {
+                globals.assign(expr.name, value);
+            }
         }
 
-        return value;
+        return value == RAW ? raw(number) : value;
     }
 
-    // evaluating binary operator
+    // evaluating binary operator, numbers are boxed only once for the whole arithmetic tree
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        Object value = binary(expr);
+        return value == RAW ? box(rawNumber) : value;
+    }
+
+    // evaluates an operand of an arithmetic expression, leaving numeric results of nested arithmetic unboxed, as well
+    // as the numbers variables and fields hold in NumberSlots
+    private Object operand(Expr expr) {
+        if (expr instanceof Expr.Binary) return binary((Expr.Binary) expr);
+        if (expr instanceof Expr.Variable) {
+            return slot(storedVariable(((Expr.Variable) expr).name, expr));
+        }
+        if (expr instanceof Expr.Get) return slot(storedField((Expr.Get) expr));
+        if (expr instanceof Expr.Assign) return assign((Expr.Assign) expr);
+        if (expr instanceof Expr.Set) return set((Expr.Set) expr);
+        if (expr instanceof Expr.Grouping) return operand(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.MINUS) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            Object right = operand(unary.right);
+            if (right == RAW) return raw(-rawNumber);
+            checkNumberOperand(unary.operator, right);
+            return raw(-(double) right);
+        }
+        return evaluate(expr);
+    }
+
+    private Object slot(Object stored) {
+        return stored instanceof NumberSlot ? raw(((NumberSlot) stored).value) : stored;
+    }
+
+    private Object raw(double value) {
+        rawNumber = value;
+        return RAW;
+    }
+
+    // boxes a number, reusing the boxes of small integers (loop counters, indexes, ...)
+    static Object box(double value) {
+        int small = (int) value;
+        if (small == value && small >= SMALL_MIN && small <= SMALL_MAX
+                && (small != 0 || Double.doubleToRawLongBits(value) == 0L)) {
+            return SMALL_NUMBERS[small - SMALL_MIN];
+        }
+        return value;
+    }
+
+    // returns RAW with the value in rawNumber when the result is a number
+    private Object binary(Expr.Binary expr) {
+        Object left = operand(expr.left);
+        double leftNumber = rawNumber;
+        Object right = operand(expr.right);
+        double rightNumber = rawNumber;
+        return combine(expr.operator, left, leftNumber, right, rightNumber);
+    }
+
+    // applies a binary operator to two evaluated values
+    Object binaryOperation(Token operator, Object left, Object right) {
+        Object value = combine(operator, left, 0, right, 0);
+        return value == RAW ? box(rawNumber) : value;
+    }
+
+    // RAW operands take their value from the matching number
+    private Object combine(Token operator, Object left, double leftNumber, Object right, double rightNumber) {
+        if ((left == RAW || left instanceof Double) && (right == RAW || right instanceof Double)) {
+            double a = left == RAW ? leftNumber : (double) left;
+            double b = right == RAW ? rightNumber : (double) right;
+
+            switch (operator.type) {
+                // same as Double.equals, which isEqual relies on
+                case BANG_EQUAL:
+                    return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+                case EQUAL_EQUAL:
+                    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+                case GREATER:
+                    return a > b;
+                case GREATER_EQUAL:
+                    return a >= b;
+                case LESS:
+                    return a < b;
+                case LESS_EQUAL:
+                    return a <= b;
+                case MINUS:
+                    return raw(a - b);
+                case PLUS:
+                    return raw(a + b);
+                case SLASH:
+                    if (b == 0) {
+                        throw new RuntimeError(operator, "The Divisor Cannot be 0");
+                    }
+                    return raw(a / b);
+                case STAR:
+                    return raw(a * b);
+            }
+        }
+
+        // at least one side isn't a number
+        if (left == RAW) left = leftNumber;
+        if (right == RAW) right = rightNumber;
 
-        switch (expr.operator.type) {
+        switch (operator.type) {
             // Equality operator
             case BANG_EQUAL:
                 if (performDifferentTypeRelation(left, right)) {
                     return !isEqual(left, right);
                 }
-                return performDifferentTypeOperation(expr.operator.type, left, right);
+                return performDifferentTypeOperation(operator.type, left, right);
 
             case EQUAL_EQUAL:
                 if (performDifferentTypeRelation(left, right))
                     return isEqual(left, right);
-                return performDifferentTypeOperation(expr.operator.type, left, right);
+                return performDifferentTypeOperation(operator.type, left, right);
 
             // relational/comparison
             case GREATER:
                 if (performDifferentTypeRelation(left, right)) {
-                    checkNumberOperand(expr.operator, left, right);
+                    checkNumberOperand(operator, left, right);
                     return (double) left > (double) right;
                 }
-                return performDifferentTypeOperation(expr.operator.type, left, right);
+                return performDifferentTypeOperation(operator.type, left, right);
 
             case GREATER_EQUAL:
                 if (performDifferentTypeRelation(left, right)) {
-                    checkNumberOperand(expr.operator, left, right);
+                    checkNumberOperand(operator, left, right);
                     return (double) left >= (double) right;
                 }
-                return performDifferentTypeOperation(expr.operator.type, left, right);
+                return performDifferentTypeOperation(operator.type, left, right);
 
             case LESS:
                 if (performDifferentTypeRelation(left, right)) {
-                    checkNumberOperand(expr.operator, left, right);
+                    checkNumberOperand(operator, left, right);
                     return (double) left < (double) right;
                 }
-                return performDifferentTypeOperation(expr.operator.type, left, right);
+                return performDifferentTypeOperation(operator.type, left, right);
 
             case LESS_EQUAL:
                 if (performDifferentTypeRelation(left, right)) {
-                    checkNumberOperand(expr.operator, left, right);
+                    checkNumberOperand(operator, left, right);
                     return (double) left <= (double) right;
                 }
-                return performDifferentTypeOperation(expr.operator.type, left, right);
+                return performDifferentTypeOperation(operator.type, left, right);
 
             // arithmetic
             case MINUS:
-                checkNumberOperand(expr.operator, left, right);
+                checkNumberOperand(operator, left, right);
                 return (double) left - (double) right;
 
             // if num, add. if string, concatenate
@@ -483,17 +882,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 if ((left instanceof Double && right instanceof String))
                     return loseDotZero(String.valueOf(left)) + (String) right;
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
 
             case SLASH:
-                checkNumberOperand(expr.operator, left, right);
+                checkNumberOperand(operator, left, right);
                 if ((double) right == 0) {
-                    throw new RuntimeError(expr.operator, "The Divisor Cannot be 0");
+                    throw new RuntimeError(operator, "The Divisor Cannot be 0");
                 } else
                     return (double) left / (double) right;
 
             case STAR:
-                checkNumberOperand(expr.operator, left, right);
+                checkNumberOperand(operator, left, right);
                 return (double) left * (double) right;
         }
 
@@ -511,7 +910,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // ## My Contribution ##
     // To lose .0 when concatinate
-    private String loseDotZero(String number) {
+    String loseDotZero(String number) {
         if (number.endsWith(".0"))
             return number.substring(0, number.length() - 2);
         return number;
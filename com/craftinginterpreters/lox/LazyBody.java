@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+// body of a function that a lazy Parser skipped: only its token range is known until the statements are
+// first needed, which is then when they get parsed and (through the hook the Resolver left) resolved.
+class LazyBody extends AbstractList<Stmt> {
+    // where the syntax and resolution errors of the body go when it is parsed
+    private final RunContext context;
+    private final TokenBuffer tokens;
+    // first token of the body and the closing '}'
+    private final int start;
+    private final int end;
+    private final Token name;
+
+    private List<Stmt> statements = null;
+    private Runnable resolution = null;
+
+    LazyBody(RunContext context, TokenBuffer tokens, int start, int end, Token name) {
+        this.context = context;
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.name = name;
+        context.lazyBodies.add(this);
+    }
+
+    synchronized boolean isParsed() {
+        return statements != null;
+    }
+
+    // the Resolver hands what it would have done for this body
+    synchronized void deferResolution(Runnable resolution) {
+        this.resolution = resolution;
+    }
+
+    // every identifier written in the body, a superset of the variables it can refer to
+    List<String> identifiers() {
+        List<String> names = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            if (tokens.type(i) == TokenType.IDENTIFIER) names.add(tokens.lexeme(i));
+        }
+        return names;
+    }
+
+    private synchronized List<Stmt> statements() {
+        if (statements == null) {
+            List<Stmt> parsed = Parser.parseBody(context, tokens, start);
+            if (context.hadError) throw new RuntimeError(name, "Body of '" + name.lexeme + "' has errors.");
+            statements = parsed;
+
+            if (resolution != null) {
+                Runnable resolve = resolution;
+                resolution = null;
+                resolve.run();
+                if (context.hadError) throw new RuntimeError(name, "Body of '" + name.lexeme + "' has errors.");
+            }
+        }
+        return statements;
+    }
+
+    // parses the body if no call did, reporting its syntax errors; false if it had any. with resolve(), this lets
+    // a run end with the errors of the bodies it never called, as an eager one would have started with them
+    synchronized boolean parse() {
+        if (statements != null) return true;
+
+        boolean hadError = context.hadError;
+        context.hadError = false;
+        statements = Parser.parseBody(context, tokens, start);
+        boolean parsed = !context.hadError;
+        context.hadError |= hadError;
+        return parsed;
+    }
+
+    // resolves the body if no call did, reporting its errors (only once every body parsed, like a whole program)
+    synchronized void resolve() {
+        if (resolution == null) return;
+        Runnable resolve = resolution;
+        resolution = null;
+        resolve.run();
+    }
+
+    @Override
+    public Stmt get(int index) {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return statements().size();
+    }
+}
@@ -2,91 +2,246 @@ package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 // import java.util.Scanner;
 
+// one command line run: its flags, its RunContext and its Interpreter
 public class Lox {
+    private final RunContext context;
+    // relative paths on the command line are resolved against it (the client's directory for the Daemon)
+    private final Path directory;
     // Interpreter instance
-    private static final Interpreter interpreter = new Interpreter();
+    private final Interpreter interpreter;
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // print the declarations the tree shaker removed
+    private boolean shakeReport = false;
+    // scan the script straight from a memory-mapped file
+    private boolean mapped = false;
+    // resolve and run the flat AstArena form of the program
+    private boolean arena = false;
+    // parse and resolve function bodies on their first call
+    private boolean lazy = false;
+    // resolve scopes while parsing instead of in a separate Resolver pass
+    private boolean fused = false;
+    // run each top-level statement as soon as it is parsed and resolved
+    private boolean pipelined = false;
+    // keep resolved scripts in the CompiledCache
+    private boolean cached = true;
+    // write a HeapImage of the interpreter after the script ran
+    private Path saveImage = null;
+    // restore a HeapImage before running the script
+    private Path loadImage = null;
+
+    Lox(RunContext context, Path directory) {
+        this.context = context;
+        this.directory = directory;
+        context.directory = directory;
+        context.hasEventLoop = true;
+        this.interpreter = new Interpreter(context);
+    }
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox[script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            if (args.length > 2) System.exit(usage(new RunContext()));
+            Daemon.serve(args.length == 2 ? Paths.get(args[1]) : Daemon.socketPath());
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(Batch.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--cluster")) {
+            System.exit(Cluster.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--cluster-worker")) {
+            System.exit(ClusterWorker.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            // the server's threads keep the process alive once it started
+            int status = Server.run(Arrays.copyOfRange(args, 1, args.length));
+            if (status != 0) System.exit(status);
+            return;
+        }
+
+        int status = new Lox(new RunContext(), Paths.get("")).run(args);
+        if (status != 0) System.exit(status);
+    }
+
+    // runs a command line, returning the exit status
+    int run(String[] args) throws IOException {
+        String script = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--shake-report")) {
+                shakeReport = true;
+            } else if (arg.equals("--mmap")) {
+                mapped = true;
+            } else if (arg.equals("--arena")) {
+                arena = true;
+            } else if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--fused")) {
+                fused = true;
+            } else if (arg.equals("--pipeline")) {
+                pipelined = true;
+            } else if (arg.equals("--no-cache")) {
+                cached = false;
+            } else if (arg.equals("--save-image") && i + 1 < args.length) {
+                saveImage = directory.resolve(args[++i]);
+            } else if (arg.equals("--load-image") && i + 1 < args.length) {
+                loadImage = directory.resolve(args[++i]);
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                return usage(context);
+            }
+        }
+
+        // an image holds the declarations of a resolved tree, which neither form has
+        if ((saveImage != null || loadImage != null) && (arena || lazy)) return usage(context);
+        if (saveImage != null && script == null) return usage(context);
+
+        if (loadImage != null) {
+            try {
+                HeapImage.load(loadImage, interpreter);
+            } catch (IOException err) {
+                context.err.println("Can't load image: " + err.getMessage());
+                return 66;
+            }
+        }
+
+        if (script != null) {
+            runFile(script);
+            if (!context.hadError && !context.hadRuntimeError) context.runEvents();
+            // the bodies a lazy run never called are checked last, so it still fails on their errors
+            if (lazy) checkLazyBodies();
+
+            // Indicate an error in the exit code
+            if (context.hadError) return 65;
+            if (context.hadRuntimeError) return 70;
         } else {
             runPrompt();
         }
+        return 0;
+    }
+
+    // parses every body a lazy run skipped and, without syntax errors, resolves them (a body parsed here may skip
+    // further bodies, which come later in the list)
+    private void checkLazyBodies() {
+        boolean parsed = true;
+        for (int i = 0; i < context.lazyBodies.size(); i++) {
+            parsed &= context.lazyBodies.get(i).parse();
+        }
+        if (!parsed) return;
+        for (int i = 0; i < context.lazyBodies.size(); i++) {
+            context.lazyBodies.get(i).resolve();
+        }
+    }
+
+    private static int usage(RunContext context) {
+        context.out.println("Usage: jlox [--shake-report] [--mmap] [--arena] [--lazy] [--fused] [--pipeline] [--no-cache]"
+                + " [--save-image file] [--load-image file] [script]");
+        context.out.println("       jlox --daemon [socket]");
+        context.out.println("       jlox --batch [--jobs n] [jlox flags] <dir|list>");
+        context.out.println("       jlox --serve [--host h] [--port n] script.jlox");
+        context.out.println("       jlox --cluster [--workers n] script.jlox <input|->");
+        return 64;
     }
 
     // for running from command line when file path is given;
-    private static void runFile(String path) throws IOException {
+    private void runFile(String path) throws IOException {
         try{
             if(!path.endsWith(".jlox")){
                 throw new IOException("Error file format provided!");
             }
-            byte[] bytes = Files.readAllBytes(Paths.get(path));
-            run(new String(bytes, Charset.defaultCharset()), false);
+            if (mapped) {
+                FusedResolver resolver = fusedResolver(false);
+                run(new Parser(context, MappedScanner.open(context, directory.resolve(path)), resolver), resolver, false);
+            } else {
+                byte[] bytes = Files.readAllBytes(directory.resolve(path));
+                // the other modes don't end with a plain resolved tree (or have to report on the shaking)
+                // (an image is saved from the statements that just ran)
+                if (cached && !shakeReport && !arena && !lazy && !fused && !pipelined && saveImage == null) {
+                    runCached(bytes);
+                } else {
+                    run(new String(bytes, Charset.defaultCharset()), false);
+                }
+            }
         }
         catch (NoSuchFileException err) {
-            System.err.println("The given path: '" + path + "' was incorrect");
+            context.err.println("The given path: '" + path + "' was incorrect");
         }
         catch (IOException err) {
-            System.err.println(err.getMessage());
+            context.err.println(err.getMessage());
         }
-
-        // Indicate an error in the exit code
-        if (hadError)
-            System.exit(65);
-
-        if (hadRuntimeError) System.exit(70);
     }
 
     // To run jlox from command line
-    public static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    private void runPrompt() throws IOException {
+        BufferedReader reader = context.in();
 
         for (;;) {
-            System.out.print("> ");
+            context.out.print("> ");
+            // (print doesn't flush, and the Daemon's output is buffered)
+            context.out.flush();
             String line = reader.readLine();
             if (line == null)
                 break;
             run(line, true);
-            hadError = false; // added to not kill entire session.
+            context.runEvents();
+            context.hadError = false; // added to not kill entire session.
         }
     }
 
     // for scanner and parser.
-    private static void run(String source, boolean isPrompt) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    private void run(String source, boolean isPrompt) {
+        TokenBuffer tokens = ParallelScanner.scan(context, source);
+        FusedResolver resolver = fusedResolver(isPrompt);
+        if (resolver != null) {
+            run(new Parser(context, tokens.cursor(0), resolver), resolver, isPrompt);
+        } else {
+            run(new Parser(context, tokens, lazy && !isPrompt), null, isPrompt);
+        }
+    }
 
-        // stop if there was a syntax error
-        if (hadError)
+    // the resolver for the parser to drive, null when the Resolver pass runs instead
+    // (lazy bodies and the arena form are resolved on their own)
+    private FusedResolver fusedResolver(boolean isPrompt) {
+        if (!fused || (!isPrompt && (lazy || arena))) return null;
+        return new FusedResolver(interpreter.tables(), context);
+    }
+
+    private void run(Parser parser, FusedResolver fusedResolver, boolean isPrompt) {
+        // shaking, folding and the arena all need the whole program first
+        if (pipelined && !isPrompt && saveImage == null) {
+            new Pipeline(parser, fusedResolver, interpreter).run();
             return;
-        // System.out.println(new AstPrinter().print(expression));
+        }
 
-        // Running a resolver
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+        List<Stmt> statements = parse(parser, fusedResolver, isPrompt);
+        if (statements == null) return;
 
-        // stop if there was a resolution error.
-        if (hadError) return;
+        if (arena && !isPrompt) {
+            // the whole tree is checked first, as in the other modes, so every resolution error is reported in
+            // source order (the arena resolver only sees what the shaking kept, and computes its own depths)
+            new Resolver(new SideTables(), context).resolve(statements);
+            if (context.hadError) return;
+            TreeShaker shaker = shaker(isPrompt);
+            if (shaker != null) statements = shake(shaker, statements);
+            runArena(AstArena.encode(statements));
+            return;
+        }
+
+        statements = resolve(statements, fusedResolver, isPrompt);
+        if (statements == null) return;
 
         interpreter.interpret(statements, isPrompt);
+        if (saveImage != null && !isPrompt && !context.hadRuntimeError) saveImage(statements);
 
         // // perform scanner wise operation
         // for (Token token : tokens) {
@@ -94,29 +249,93 @@ public class Lox {
         // }
     }
 
-    // Error Handling
-    static void error(int line, String message) {
-        report(line, "", message);
+    private void saveImage(List<Stmt> statements) {
+        try {
+            HeapImage.save(saveImage, new Program(statements, interpreter.tables()), interpreter);
+        } catch (IOException err) {
+            context.err.println("Can't save image: " + err.getMessage());
+        }
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error " + where + ": " + message);
-        hadError = true;
+    // runs a script from its CompiledCache entry, or compiles it and stores what the front end produced
+    private void runCached(byte[] bytes) {
+        CompiledCache cache = CompiledCache.open();
+        String key = cache.key(bytes);
+        Program program = cache.load(key, bytes);
+
+        if (program == null) {
+            program = Program.compile(new String(bytes, Charset.defaultCharset()), context);
+            if (program == null) return;
+            cache.store(key, bytes, program);
+        }
+
+        interpreter.interpret(program);
     }
 
-    // show error
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, token.lexeme + "'", message);
+    // parses a program, null if there were errors
+    private List<Stmt> parse(Parser parser, FusedResolver fusedResolver, boolean isPrompt) {
+        List<Stmt> statements = parser.parse();
+
+        // stop if there was a syntax error
+        if (context.hadError)
+            return null;
+
+        // the tree is already resolved, only its errors are left to report
+        if (fusedResolver != null) {
+            fusedResolver.reportErrors();
+            if (context.hadError) return null;
         }
+        // System.out.println(new AstPrinter().print(expression));
+        return statements;
+    }
+
+    // a whole script is known up front, so unreachable functions and classes can be dropped, null when they can't
+    // (REPL lines and scripts run on a saved image may still call them later)
+    private TreeShaker shaker(boolean isPrompt) {
+        return !isPrompt && saveImage == null ? new TreeShaker() : null;
     }
 
-    // show runtime error
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private List<Stmt> shake(TreeShaker shaker, List<Stmt> statements) {
+        List<Stmt> kept = shaker.shake(statements);
+        if (shakeReport) {
+            for (Stmt removed : shaker.removed()) {
+                context.err.println("[shake] removed " + TreeShaker.describe(removed));
+            }
+        }
+        return kept;
     }
 
-}
\ No newline at end of file
+    // resolves, shakes and folds a parsed program, null if there were errors. the whole program is resolved before
+    // the shaking, so a mistake in a function nothing calls is still a compile error
+    private List<Stmt> resolve(List<Stmt> statements, FusedResolver fusedResolver, boolean isPrompt) {
+        // Running a resolver
+        if (fusedResolver == null) {
+            Resolver resolver = new Resolver(interpreter);
+            resolver.resolve(statements);
+
+            // stop if there was a resolution error.
+            if (context.hadError) return null;
+        }
+
+        TreeShaker shaker = shaker(isPrompt);
+        if (shaker != null) statements = shake(shaker, statements);
+
+        // precompute pure calls with constant arguments and replace instances that don't escape (both would have to
+        // parse every lazy body)
+        if (!isPrompt && !lazy) {
+            new PartialEvaluator(interpreter.tables()).evaluate(statements);
+            new EscapeAnalysis(interpreter.tables()).analyze(statements);
+        }
+        return statements;
+    }
+
+    // the tree is only needed to build the arena, both the resolver and the interpreter then run over the flat form
+    private void runArena(AstArena program) {
+        int[] depths = new ArenaResolver(context, program).resolve();
+
+        // stop if there was a resolution error.
+        if (context.hadError) return;
+
+        new ArenaInterpreter(context, program, depths).run();
+    }
+}
@@ -0,0 +1,73 @@
+// A bounded channel between tasks: send blocks while it is full and receive while it is empty.
+// Once closed, a channel takes no more values, and receive returns nil after the last one was taken.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class LoxChannel {
+    // stands in for nil, which an ArrayDeque can't hold
+    private static final Object NIL = new Object();
+
+    private final int capacity;
+    private final ArrayDeque<Object> values;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        this.capacity = capacity;
+        this.values = new ArrayDeque<>(capacity);
+    }
+
+    void send(Object value) {
+        lock.lock();
+        try {
+            while (values.size() == capacity && !closed) notFull.await();
+            if (closed) throw new Natives.Failure("Can't send on a closed channel.");
+            values.add(value == null ? NIL : value);
+            notEmpty.signal();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new Natives.Failure("Interrupted while sending.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive() {
+        lock.lock();
+        try {
+            while (values.isEmpty() && !closed) notEmpty.await();
+            if (values.isEmpty()) return null;
+            Object value = values.poll();
+            notFull.signal();
+            return value == NIL ? null : value;
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new Natives.Failure("Interrupted while receiving.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // wakes every blocked sender (which then fails) and receiver (which gets what is left, then nil)
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -1,5 +1,7 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -7,6 +9,8 @@ class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
     private final Map<String, LoxFunction> methods;
+    // field layout shared by every instance of this class, replaced (never mutated) when a new field shows up
+    private volatile Map<String, Integer> fieldSlots = new HashMap<>();
 
     LoxClass (String name, LoxClass superclass, Map<String, LoxFunction> methods){
         this.superclass = superclass;
@@ -26,6 +30,38 @@ class LoxClass implements LoxCallable {
         return null;
     }
 
+    // the methods declared by this class itself
+    Map<String, LoxFunction> methods() {
+        return Collections.unmodifiableMap(methods);
+    }
+
+    // field name to slot
+    Map<String, Integer> fieldSlots() {
+        return fieldSlots;
+    }
+
+    // slot of the field in instances of this class, -1 if no instance ever set it
+    int fieldSlot(String name){
+        Integer slot = fieldSlots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int addFieldSlot(String name){
+        Integer slot = fieldSlots.get(name);
+        if (slot != null) return slot;
+
+        synchronized (this) {
+            slot = fieldSlots.get(name);
+            if (slot != null) return slot;
+
+            Map<String, Integer> grown = new HashMap<>(fieldSlots);
+            slot = grown.size();
+            grown.put(name, slot);
+            fieldSlots = grown;
+            return slot;
+        }
+    }
+
     @Override
     public String toString(){
         return "<class: "+ name+">";
@@ -33,7 +69,7 @@ class LoxClass implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguements){
-        LoxInstance instance = new LoxInstance(this);
+        LoxInstance instance = new LoxInstance(this, interpreter.context);
         LoxFunction initializer = findMethod("init");
         if (initializer != null){
             initializer.bind(instance).call(interpreter, arguements);
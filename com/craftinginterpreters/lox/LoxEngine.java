@@ -0,0 +1,43 @@
+// Entry point of the embedding API: compiles Lox source once into a PreparedScript, which any number of threads can
+// then instantiate and call functions of.
+//
+//     PreparedScript script = LoxEngine.compile("fun add(a, b) { return a + b; }");
+//     ScriptInstance instance = script.instantiate();
+//     Object sum = instance.invoke("add", 1, 2);    // 3.0
+//
+// Nothing touches System.in, System.out or System.err: scripts read no input, print to the stream they were given
+// (nowhere by default), and errors are thrown as LoxExceptions.
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+public final class LoxEngine {
+    private LoxEngine() {
+    }
+
+    public static PreparedScript compile(String source) {
+        return compile(source, new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    // compiles the source and runs its top level once, printing to out; every instance then starts from the globals
+    // the top level left
+    public static PreparedScript compile(String source, PrintStream out) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        RunContext context = new RunContext(InputStream.nullInputStream(), out, new PrintStream(errors, true));
+        Program program = Program.compileLibrary(source, context);
+        if (program == null) throw new LoxException(errors.toString(Charset.defaultCharset()).trim(), -1);
+
+        Interpreter interpreter = new Interpreter(context, program);
+        try {
+            interpreter.execute(program);
+        } catch (RuntimeError error) {
+            throw new LoxException(error.getMessage(), error.token.line);
+        }
+        return new PreparedScript(Baseline.freeze(program, interpreter), out);
+    }
+}
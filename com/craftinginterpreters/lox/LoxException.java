@@ -0,0 +1,20 @@
+// A compile or runtime error of a script run through the embedding API (see LoxEngine), thrown to the host
+// instead of being reported on stderr.
+
+package com.craftinginterpreters.lox;
+
+public class LoxException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+
+    LoxException(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+
+    // the line of a runtime error, -1 for compile errors (whose message lists the lines)
+    public int line() {
+        return line;
+    }
+}
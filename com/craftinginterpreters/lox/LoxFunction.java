@@ -3,11 +3,11 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     // to support closure [function inside a function]
-    private final Environment closure;
+    final Environment closure;
 
-    private final boolean isInitializer;
+    final boolean isInitializer;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
         this.isInitializer = isInitializer;
@@ -35,7 +35,8 @@ class LoxFunction implements LoxCallable {
     public Object call(Interpreter interpreter, List<Object> arguements) {
         // calling function with closure environment [env when func was declared], not
         // the global one
-        Environment environment = new Environment(closure);
+        // with the caller's context, which isn't the closure's for a function of a Baseline
+        Environment environment = new Environment(closure, interpreter.context);
         for (int i = 0; i < declaration.params.size(); i++) {
             environment.define(declaration.params.get(i).lexeme, arguements.get(i));
         }
@@ -2,21 +2,88 @@
 
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class LoxInstance {
+    // marks a slot whose field was never set on this instance (nil is a valid field value)
+    private static final Object ABSENT = new Object();
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // like environments, an instance locks itself on access once its run has spawned a task
+    private final RunContext context;
+    // field values laid out by the slots of klass, allocated on first set. a field assigned a number from arithmetic
+    // holds a NumberSlot, like a variable (see Environment)
+    private Object[] fields = null;
+    // set by Baseline.freeze, the fields are then only written in an Overlay's copy
+    boolean frozen = false;
+    // context.epoch when this instance was created, see Parallel
+    final int epoch;
+
+    LoxInstance(LoxClass klass, RunContext context){
+        this(klass, context, context.epoch);
+    }
 
-    LoxInstance(LoxClass klass){
+    private LoxInstance(LoxClass klass, RunContext context, int epoch){
         this.klass = klass;
+        this.context = context;
+        this.epoch = epoch;
+    }
+
+    LoxClass klass() {
+        return klass;
+    }
+
+    // the fields set on this instance by name, in slot order
+    synchronized Map<String, Object> fields() {
+        Map<String, Object> set = new LinkedHashMap<>();
+        if (fields == null) return set;
+
+        String[] names = new String[fields.length];
+        for (Map.Entry<String, Integer> slot : klass.fieldSlots().entrySet()) {
+            if (slot.getValue() < names.length) names[slot.getValue()] = slot.getKey();
+        }
+        for (int slot = 0; slot < fields.length; slot++) {
+            if (fields[slot] != ABSENT) set.put(names[slot], NumberSlot.unbox(fields[slot]));
+        }
+        return set;
+    }
+
+    // an unfrozen copy of the fields for an Overlay
+    synchronized LoxInstance copy(RunContext context) {
+        // (the copy stands for this instance, so it keeps its epoch)
+        LoxInstance copy = new LoxInstance(klass, context, epoch);
+        if (fields != null) {
+            copy.fields = fields.clone();
+            for (int slot = 0; slot < fields.length; slot++) {
+                if (fields[slot] instanceof NumberSlot) copy.fields[slot] = new NumberSlot((NumberSlot) fields[slot]);
+            }
+        }
+        return copy;
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
+        return get(name, this);
+    }
+
+    // the field as stored in an Overlay's copy of this instance (or this instance itself), or a method bound to
+    // this instance
+    Object get(Token name, LoxInstance storage) {
+        return NumberSlot.unbox(stored(name, storage));
+    }
+
+    // like get, but a field holding a NumberSlot returns the slot itself while the run is single-threaded
+    Object stored(Token name, LoxInstance storage) {
+        Object value;
+        if (!storage.context.concurrent) {
+            value = storage.field(name.lexeme);
+        } else {
+            synchronized (storage) {
+                value = NumberSlot.unbox(storage.field(name.lexeme));
+            }
         }
+        if (value != ABSENT) return value;
 
         LoxFunction method = klass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
@@ -25,7 +92,64 @@ public class LoxInstance {
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        set(name.lexeme, value);
+    }
+
+    void set(String name, Object value) {
+        if (!context.concurrent) {
+            store(name, value);
+            return;
+        }
+        synchronized (this) {
+            store(name, value);
+        }
+    }
+
+    // sets the field to a number computed by arithmetic, in place when it already holds one that was
+    void setNumber(Token name, double value) {
+        if (!context.concurrent) {
+            storeNumber(name.lexeme, value);
+            return;
+        }
+        synchronized (this) {
+            storeNumber(name.lexeme, value);
+        }
+    }
+
+    // the value of the field, ABSENT if it was never set
+    private Object field(String name) {
+        int slot = klass.fieldSlot(name);
+        if (fields != null && slot >= 0 && slot < fields.length) return fields[slot];
+        return ABSENT;
+    }
+
+    private void store(String name, Object value) {
+        int slot = slot(name);
+        if (value instanceof Double && fields[slot] instanceof NumberSlot) {
+            ((NumberSlot) fields[slot]).set((Double) value);
+            return;
+        }
+        fields[slot] = value;
+    }
+
+    private void storeNumber(String name, double value) {
+        int slot = slot(name);
+        if (fields[slot] instanceof NumberSlot) {
+            ((NumberSlot) fields[slot]).set(value);
+        } else {
+            fields[slot] = new NumberSlot(value);
+        }
+    }
+
+    // the field's slot, growing the fields to hold it
+    private int slot(String name) {
+        int slot = klass.addFieldSlot(name);
+        if (fields == null || slot >= fields.length) {
+            int oldLength = fields == null ? 0 : fields.length;
+            fields = fields == null ? new Object[Math.max(slot + 1, 2)] : Arrays.copyOf(fields, Math.max(slot + 1, oldLength * 2));
+            Arrays.fill(fields, oldLength, fields.length, ABSENT);
+        }
+        return slot;
     }
 
     @Override
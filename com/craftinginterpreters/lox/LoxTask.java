@@ -0,0 +1,48 @@
+// A Lox function running on its own thread, started by the spawn native and waited for with join.
+// Tasks run on a Threads.perTask executor, so a task nobody joins doesn't keep the process alive once the script
+// is done.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+class LoxTask {
+    private static final ExecutorService EXECUTOR = Threads.perTask("lox-task");
+
+    private final Future<Object> result;
+
+    private LoxTask(Future<Object> result) {
+        this.result = result;
+    }
+
+    // calls the function on a new task with an interpreter of its own, sharing the globals of the caller's
+    static LoxTask spawn(Interpreter interpreter, LoxCallable function) {
+        // before the task exists, so it only ever sees locking environments
+        interpreter.context.concurrent = true;
+        Interpreter forked = interpreter.fork();
+        return new LoxTask(EXECUTOR.submit(() -> function.call(forked, new ArrayList<>())));
+    }
+
+    // the value the function returned; a runtime error in the task is raised again, with its own line, in the joiner
+    Object join() {
+        try {
+            return result.get();
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new Natives.Failure("Task failed: " + cause);
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new Natives.Failure("Interrupted while joining a task.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,263 @@
+// Scanner for very large sources: reads straight out of a memory-mapped file and produces one token per call,
+// so neither the decoded source String nor the full token list ever exists.
+// It recognizes exactly the same lexemes as Scanner.
+
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+class MappedScanner implements TokenSource {
+    private final ByteBuffer source;
+    private final int length;
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+    private Token eof = null;
+
+    // identifiers repeat a lot in generated code, so each distinct name is only allocated once
+    private final Map<String, String> names = new HashMap<>();
+
+    // keywords by a perfect hash of (first char, last char, length), checked byte by byte on a hit
+    private static final String[] KEYWORD_NAMES = {
+        "and", "class", "else", "false", "for", "fun", "if", "nil",
+        "or", "print", "return", "super", "this", "true", "var", "while"
+    };
+    private static final TokenType[] KEYWORD_TYPES = {
+        AND, CLASS, ELSE, FALSE, FOR, FUN, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE
+    };
+    private static final byte[][] keywordBytes = new byte[32][];
+    private static final String[] keywordNames = new String[32];
+    private static final TokenType[] keywordTypes = new TokenType[32];
+    static {
+        for (int i = 0; i < KEYWORD_NAMES.length; i++) {
+            byte[] name = KEYWORD_NAMES[i].getBytes(StandardCharsets.US_ASCII);
+            int slot = keywordHash(name[0], name[name.length - 1], name.length);
+            if (keywordBytes[slot] != null) throw new AssertionError("keyword hash collision: " + KEYWORD_NAMES[i]);
+            keywordBytes[slot] = name;
+            keywordNames[slot] = KEYWORD_NAMES[i];
+            keywordTypes[slot] = KEYWORD_TYPES[i];
+        }
+    }
+
+    private static int keywordHash(int first, int last, int length) {
+        return (first + 5 * last + length) & 31;
+    }
+
+    private final RunContext context;
+
+    MappedScanner(RunContext context, ByteBuffer source) {
+        this.context = context;
+        this.source = source;
+        this.length = source.limit();
+    }
+
+    // maps the whole file read-only, sources are limited to 2GB by the ByteBuffer API
+    static MappedScanner open(RunContext context, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Source file is too large to map: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedScanner(context, buffer);
+        }
+    }
+
+    @Override
+    public Token nextToken() {
+        while (!isAtEnd()) {
+            // we are at the beginning of the next lexeme.
+            start = current;
+            Token token = scanToken();
+            if (token != null) return token;
+        }
+        if (eof == null) eof = new Token(EOF, "", null, line);
+        return eof;
+    }
+
+    private boolean isAtEnd() {
+        return current >= length;
+    }
+
+    // returns null for whitespace, comments and errors
+    private Token scanToken() {
+        char c = advance();
+        switch (c) {
+            case '(': return token(LEFT_PAREN, "(");
+            case ')': return token(RIGHT_PAREN, ")");
+            case '{': return token(LEFT_BRACE, "{");
+            case '}': return token(RIGHT_BRACE, "}");
+            case ',': return token(COMMA, ",");
+            case '.': return token(DOT, ".");
+            case '-': return token(MINUS, "-");
+            case '+': return token(PLUS, "+");
+            case ';': return token(SEMICOLON, ";");
+            case '*': return token(STAR, "*");
+            case '?': return token(QUESTION_MARK, "?");
+            case ':': return token(COLON, ":");
+
+            // operator with possible second character
+            case '!': return match('=') ? token(BANG_EQUAL, "!=") : token(BANG, "!");
+            case '=': return match('=') ? token(EQUAL_EQUAL, "==") : token(EQUAL, "=");
+            case '<': return match('=') ? token(LESS_EQUAL, "<=") : token(LESS, "<");
+            case '>': return match('=') ? token(GREATER_EQUAL, ">=") : token(GREATER, ">");
+
+            case '/':
+                if (match('/')) {
+                    while (peek() != '\n' && !isAtEnd()) advance();
+                    return null;
+                }
+                if (match('*')) {
+                    // same rules as Scanner: ends at the first "*/" pair read two characters at a time
+                    while (true) {
+                        if (isAtEnd()) {
+                            context.err.println("> [Error: Multi-line comment wasn't bounded]!");
+                            return null;
+                        }
+                        if (advance() == '*') {
+                            if (isAtEnd()) continue;
+                            if (advance() == '/') return null;
+                        }
+                    }
+                }
+                return token(SLASH, "/");
+
+            // Whitespaces and new lines
+            case ' ':
+            case '\r':
+            case '\t':
+                return null;
+            case '\n':
+                line++;
+                return null;
+
+            case '"': return string();
+
+            default:
+                if (isDigit(c)) return number();
+                if (isAlpha(c)) return identifier();
+
+                // a multi-byte UTF-8 character is a single unexpected character
+                if (c >= 0x80) {
+                    while (!isAtEnd() && (source.get(current) & 0xC0) == 0x80) current++;
+                }
+                context.error(line, "Unexpected character.");
+                return null;
+        }
+    }
+
+    private Token token(TokenType type, String lexeme) {
+        return new Token(type, lexeme, null, line);
+    }
+
+    private Token identifier() {
+        while (isAlphaNumeric(peek())) advance();
+
+        int size = current - start;
+        int slot = keywordHash(source.get(start), source.get(current - 1), size);
+        byte[] keyword = keywordBytes[slot];
+        if (keyword != null && keyword.length == size && matches(keyword)) {
+            return token(keywordTypes[slot], keywordNames[slot]);
+        }
+
+        String text = ascii(start, current);
+        return token(IDENTIFIER, names.computeIfAbsent(text, k -> k));
+    }
+
+    private boolean matches(byte[] keyword) {
+        for (int i = 0; i < keyword.length; i++) {
+            if (source.get(start + i) != keyword[i]) return false;
+        }
+        return true;
+    }
+
+    private Token number() {
+        while (isDigit(peek())) advance();
+
+        // looking for a fraction part
+        if (peek() == '.' && isDigit(peekNext())) {
+            // consume the '.'
+            advance();
+
+            while (isDigit(peek())) advance();
+        }
+
+        String text = ascii(start, current);
+        return new Token(NUMBER, text, Double.parseDouble(text), line);
+    }
+
+    // the only place that decodes UTF-8
+    private Token string() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n') line++;  // line is incremented as Lox supports multiline string
+            advance();
+        }
+
+        if (isAtEnd()) {
+            context.error(line, "Unterminated string.");
+            return null;
+        }
+
+        // The closing
+        advance();
+        String value = utf8(start + 1, current - 1);
+        return new Token(STRING, "\"" + value + "\"", value, line);
+    }
+
+    private String ascii(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private String utf8(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (source.get(current) != expected) return false;
+
+        current++;
+        return true;
+    }
+
+    private char peek() {
+        if (isAtEnd()) return '\0';
+        return (char) (source.get(current) & 0xFF);
+    }
+
+    private char peekNext() {
+        if (current + 1 >= length) return '\0';
+        return (char) (source.get(current + 1) & 0xFF);
+    }
+
+    private boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') ||
+            (c >= 'A' && c <= 'Z') ||
+            c == '_';
+    }
+
+    private boolean isAlphaNumeric(char c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private char advance() {
+        return (char) (source.get(current++) & 0xFF);
+    }
+}
@@ -0,0 +1,207 @@
+// The native functions, built the first time a script looks one up in globals (see Environment.get),
+// so a script that never calls them never loads their classes.
+
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Pattern;
+
+class Natives {
+    // a native remembers the global it was created for, so a HeapImage can create it again
+    abstract static class Native implements LoxCallable {
+        final String name;
+
+        Native(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    // thrown by a native for a runtime error, which the interpreter reports at the call
+    static class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Failure(String message) {
+            super(message);
+        }
+    }
+
+    private interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    private static Native define(String name, int arity, Body body) {
+        return new Native(name) {
+            @Override
+            public int arity() {
+                return arity;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return body.call(interpreter, arguments);
+            }
+        };
+    }
+
+    // whether the global is one of the natives jlox always defined up front (clock and Input), which a script may
+    // assign before ever reading it; the later natives only exist once looked up
+    static boolean isPredefined(String name) {
+        return name.equals("clock") || name.equals("Input");
+    }
+
+    // the native bound to a global name, null if there is none
+    static LoxCallable create(String name) {
+        switch (name) {
+            case "clock":
+                return new Native(name) {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        return (double) System.currentTimeMillis() / 1000.0;
+                    }
+                };
+
+            // My Contribution for user input
+            case "Input":
+                return new Native(name) {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        String text;
+                        try {
+                            text = interpreter.context.in().readLine();
+                        } catch (IOException error) {
+                            throw new Failure("Can't read input: " + error.getMessage());
+                        }
+                        // nil at the end of the input
+                        if (text == null) return null;
+
+                        Pattern pattern = Pattern.compile("[^0-9.]"); // !0-9 and .
+                        if (pattern.matcher(text).find()) { // if input text found any that's not 0-9 and . then return as
+                                                            // String
+                            return text;
+                        }
+                        // else return as Double;
+                        else
+                            return Double.parseDouble(interpreter.loseDotZero(text));
+                    }
+                };
+
+            // tasks and channels, see LoxTask and LoxChannel
+            case "spawn":
+                return define(name, 1, (interpreter, arguments) -> {
+                    Object function = arguments.get(0);
+                    if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != 0) {
+                        throw new Failure("spawn expects a function without parameters.");
+                    }
+                    return LoxTask.spawn(interpreter, (LoxCallable) function);
+                });
+
+            case "join":
+                return define(name, 1, (interpreter, arguments) -> task(arguments.get(0)).join());
+
+            case "channel":
+                return define(name, 1, (interpreter, arguments) -> {
+                    Object capacity = arguments.get(0);
+                    if (!(capacity instanceof Double) || (Double) capacity < 1
+                            || (Double) capacity != Math.floor((Double) capacity)) {
+                        throw new Failure("Channel capacity must be a positive integer.");
+                    }
+                    return new LoxChannel((int) Math.min((Double) capacity, Integer.MAX_VALUE));
+                });
+
+            case "send":
+                return define(name, 2, (interpreter, arguments) -> {
+                    channel(arguments.get(0)).send(arguments.get(1));
+                    return null;
+                });
+
+            case "receive":
+                return define(name, 1, (interpreter, arguments) -> channel(arguments.get(0)).receive());
+
+            case "close":
+                return define(name, 1, (interpreter, arguments) -> {
+                    channel(arguments.get(0)).close();
+                    return null;
+                });
+
+            // handlers of jlox --serve, see Server
+            case "route":
+                return define(name, 3, (interpreter, arguments) -> {
+                    Server server = interpreter.context.server;
+                    if (server == null) throw new Failure("route is only available under jlox --serve.");
+                    server.route(arguments.get(0), arguments.get(1), arguments.get(2));
+                    return null;
+                });
+
+            // bulk operations over an index range, see Parallel
+            case "parallelFor":
+                return define(name, 3, (interpreter, arguments) -> {
+                    Parallel.forEach(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+                    return null;
+                });
+
+            case "parallelMap":
+                return define(name, 3, (interpreter, arguments) ->
+                        Parallel.map(interpreter, arguments.get(0), arguments.get(1), arguments.get(2)));
+
+            case "parallelReduce":
+                return define(name, 4, (interpreter, arguments) -> Parallel.reduce(interpreter, arguments.get(0),
+                        arguments.get(1), arguments.get(2), arguments.get(3)));
+
+            // timers and reads that call back from the run's EventLoop
+            case "setTimeout":
+                return define(name, 2, (interpreter, arguments) ->
+                        interpreter.context.events().setTimer(interpreter, arguments.get(0), arguments.get(1), false));
+
+            case "setInterval":
+                return define(name, 2, (interpreter, arguments) ->
+                        interpreter.context.events().setTimer(interpreter, arguments.get(0), arguments.get(1), true));
+
+            case "clearTimer":
+                return define(name, 1, (interpreter, arguments) -> {
+                    interpreter.context.events().clearTimer(arguments.get(0));
+                    return null;
+                });
+
+            case "readFile":
+                return define(name, 2, (interpreter, arguments) -> {
+                    interpreter.context.events().readFile(interpreter, arguments.get(0), arguments.get(1));
+                    return null;
+                });
+
+            case "readLines":
+                return define(name, 2, (interpreter, arguments) -> {
+                    interpreter.context.events().readLines(interpreter, arguments.get(0), arguments.get(1));
+                    return null;
+                });
+
+            default:
+                return null;
+        }
+    }
+
+    private static LoxTask task(Object value) {
+        if (!(value instanceof LoxTask)) throw new Failure("Can only join a task.");
+        return (LoxTask) value;
+    }
+
+    private static LoxChannel channel(Object value) {
+        if (!(value instanceof LoxChannel)) throw new Failure("Expected a channel.");
+        return (LoxChannel) value;
+    }
+}
@@ -0,0 +1,44 @@
+// Where a variable or field keeps a number it was assigned from arithmetic: the raw double, overwritten in place by
+// the next number, so a loop counter or an accumulator doesn't box a new Double every iteration. Generic code
+// reads it through box(), which boxes once per write. Environments and instances create slots and keep them to
+// themselves (copying them for an Overlay), so a slot is only ever written through the one scope or instance
+// holding it, under that holder's lock once the run is concurrent.
+
+package com.craftinginterpreters.lox;
+
+final class NumberSlot {
+    double value;
+    // the boxed value, kept until the next write (a frozen slot may have it set by any reader, which is harmless:
+    // every box of the value is as good as another)
+    private Double box;
+
+    NumberSlot(double value) {
+        this.value = value;
+    }
+
+    NumberSlot(NumberSlot other) {
+        this.value = other.value;
+        this.box = other.box;
+    }
+
+    void set(double value) {
+        this.value = value;
+        this.box = null;
+    }
+
+    // a generic write of a number, which already comes boxed
+    void set(Double box) {
+        this.value = box;
+        this.box = box;
+    }
+
+    Object box() {
+        if (box == null) box = (Double) Interpreter.box(value);
+        return box;
+    }
+
+    // the value as generic code sees it
+    static Object unbox(Object stored) {
+        return stored instanceof NumberSlot ? ((NumberSlot) stored).box() : stored;
+    }
+}
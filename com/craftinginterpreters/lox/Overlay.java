@@ -0,0 +1,48 @@
+// What one execution changed of a Baseline: its globals, which read through to the frozen ones until assigned, and
+// its copies of the frozen environments and instances it wrote to. An interpreter with an overlay reads a frozen
+// environment or instance through its copy, if there is one, and copies it on the first write; every reference
+// still points at the frozen original, so identity is kept.
+// Resetting forgets the changes, which costs what was changed.
+
+package com.craftinginterpreters.lox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+final class Overlay {
+    private final RunContext context;
+    final Environment globals;
+    // frozen original to copy, guarded by this (an execution may spawn tasks)
+    private final Map<Environment, Environment> environments = new IdentityHashMap<>();
+    private final Map<LoxInstance, LoxInstance> instances = new IdentityHashMap<>();
+
+    Overlay(Baseline baseline, RunContext context) {
+        this.context = context;
+        this.globals = new Environment(context, baseline.globals);
+    }
+
+    synchronized Environment read(Environment frozen) {
+        Environment copy = environments.get(frozen);
+        return copy != null ? copy : frozen;
+    }
+
+    synchronized Environment write(Environment frozen) {
+        return environments.computeIfAbsent(frozen, original -> original.copy(context));
+    }
+
+    synchronized LoxInstance read(LoxInstance frozen) {
+        LoxInstance copy = instances.get(frozen);
+        return copy != null ? copy : frozen;
+    }
+
+    synchronized LoxInstance write(LoxInstance frozen) {
+        return instances.computeIfAbsent(frozen, original -> original.copy(context));
+    }
+
+    // back to the Baseline as it was frozen
+    synchronized void reset() {
+        globals.clearOverlay();
+        environments.clear();
+        instances.clear();
+    }
+}
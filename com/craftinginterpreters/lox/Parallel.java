@@ -0,0 +1,173 @@
+// Bulk operations over an index range [from, to) on the common ForkJoinPool: parallelFor, parallelMap and
+// parallelReduce. The range is split in halves down to a few chunks per worker, and every chunk calls the Lox
+// function on an interpreter of its own.
+//
+// Callbacks share the heap of the run (see the memory model in Environment), but they may not assign variables
+// declared outside of them, nor set fields of instances created outside of them: every environment and instance
+// records the run's epoch when it is created, each operation starts a new epoch, and its interpreters refuse to
+// write to one of an older epoch.
+
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+class Parallel {
+    // chunks per worker, so a slow chunk doesn't leave the others idle
+    private static final int CHUNKS_PER_WORKER = 4;
+    // result of an empty half of the range
+    private static final Object EMPTY = new Object();
+
+    private final Interpreter interpreter;
+    private final int from;
+    private final int to;
+    private final LoxCallable function;
+    private final int threshold;
+    private final int epoch;
+
+    private Parallel(Interpreter interpreter, Object from, Object to, Object function) {
+        this.interpreter = interpreter;
+        this.from = index(from);
+        this.to = index(to);
+        this.function = callable(function, 1);
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        this.threshold = Math.max(1, (this.to - this.from) / (workers * CHUNKS_PER_WORKER));
+
+        RunContext context = interpreter.context;
+        // before any callback runs, so they all lock (and see) what they share
+        context.concurrent = true;
+        synchronized (context) {
+            this.epoch = ++context.epoch;
+        }
+    }
+
+    // calls function(i) for every index
+    static void forEach(Interpreter interpreter, Object from, Object to, Object function) {
+        Parallel range = new Parallel(interpreter, from, to, function);
+        range.run(range.new Chunk(range.from, range.to, null, null));
+    }
+
+    // function(i) of every index, as a function from index to result
+    static LoxCallable map(Interpreter interpreter, Object from, Object to, Object function) {
+        Parallel range = new Parallel(interpreter, from, to, function);
+        Object[] results = new Object[Math.max(0, range.to - range.from)];
+        range.run(range.new Chunk(range.from, range.to, results, null));
+        return new Results(range.from, results);
+    }
+
+    // function(i) of every index combined pairwise, in index order, with combine(a, b); nil for an empty range
+    static Object reduce(Interpreter interpreter, Object from, Object to, Object function, Object combine) {
+        Parallel range = new Parallel(interpreter, from, to, function);
+        Object result = range.run(range.new Chunk(range.from, range.to, null, callable(combine, 2)));
+        return result == EMPTY ? null : result;
+    }
+
+    private Object run(Chunk chunk) {
+        // a callback's runtime error comes back out of invoke, reported where it happened
+        return ForkJoinPool.commonPool().invoke(chunk);
+    }
+
+    private static int index(Object value) {
+        if (!(value instanceof Double) || (Double) value != Math.floor((Double) value)
+                || Math.abs((Double) value) > Integer.MAX_VALUE) {
+            throw new Natives.Failure("Range bounds must be integers.");
+        }
+        return (int) (double) (Double) value;
+    }
+
+    private static LoxCallable callable(Object value, int arity) {
+        if (!(value instanceof LoxCallable) || ((LoxCallable) value).arity() != arity) {
+            throw new Natives.Failure("Expected a function of " + arity + (arity == 1 ? " parameter." : " parameters."));
+        }
+        return (LoxCallable) value;
+    }
+
+    private final class Chunk extends RecursiveTask<Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        // set for parallelMap
+        private final Object[] results;
+        // set for parallelReduce
+        private final LoxCallable combine;
+
+        Chunk(int start, int end, Object[] results, LoxCallable combine) {
+            this.start = start;
+            this.end = end;
+            this.results = results;
+            this.combine = combine;
+        }
+
+        @Override
+        protected Object compute() {
+            if (end - start <= threshold) return leaf();
+
+            int middle = start + (end - start) / 2;
+            Chunk left = new Chunk(start, middle, results, combine);
+            Chunk right = new Chunk(middle, end, results, combine);
+            left.fork();
+            Object rightResult = right.compute();
+            Object leftResult = left.join();
+            return combine(worker(), leftResult, rightResult);
+        }
+
+        private Object leaf() {
+            Interpreter worker = worker();
+            Object result = EMPTY;
+            for (int i = start; i < end; i++) {
+                Object value = function.call(worker, Arrays.asList((Object) (double) i));
+                if (results != null) {
+                    results[i - from] = value;
+                } else if (combine != null) {
+                    result = combine(worker, result, value);
+                }
+            }
+            return result;
+        }
+
+        private Object combine(Interpreter worker, Object left, Object right) {
+            if (combine == null || right == EMPTY) return left;
+            if (left == EMPTY) return right;
+            return combine.call(worker, Arrays.asList(left, right));
+        }
+
+        private Interpreter worker() {
+            Interpreter worker = interpreter.fork();
+            worker.confine(epoch);
+            return worker;
+        }
+    }
+
+    // what parallelMap returns: results(i) is what the function returned for index i
+    private static final class Results implements LoxCallable {
+        private final int from;
+        private final Object[] values;
+
+        Results(int from, Object[] values) {
+            this.from = from;
+            this.values = values;
+        }
+
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            int index = index(arguments.get(0));
+            if (index < from || index - from >= values.length) {
+                throw new Natives.Failure("Index " + index + " is out of the mapped range.");
+            }
+            return values[index - from];
+        }
+
+        @Override
+        public String toString() {
+            return "<parallel map of " + values.length + ">";
+        }
+    }
+}
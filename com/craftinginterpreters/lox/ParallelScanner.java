@@ -0,0 +1,74 @@
+// Scans a large source on the ForkJoinPool: the source is cut into chunks at line starts, each chunk is scanned
+// on its own with lines counted from 1, and the chunks are stitched together in order afterwards.
+// A chunk whose first characters were swallowed by a string or block comment from an earlier chunk is
+// scanned again from where that token ended. The result is the buffer Scanner.scanBuffer() would produce,
+// with the errors reported in the same order and on the same lines.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+class ParallelScanner {
+    // smaller sources aren't worth handing out
+    private static final int MIN_PARALLEL = 1 << 20;
+    private static final int MIN_CHUNK = 256 * 1024;
+
+    static TokenBuffer scan(RunContext context, String source) {
+        // (the size check comes first, so small scripts never start the pool)
+        if (source.length() < MIN_PARALLEL || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            return new Scanner(context, source).scanBuffer();
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return scan(context, source, pool, Math.max(MIN_CHUNK, source.length() / (pool.getParallelism() * 4)));
+    }
+
+    // always chunked, however small the source or the chunks (ScanCheck compares this with Scanner)
+    static TokenBuffer scan(RunContext context, String source, ForkJoinPool pool, int chunkSize) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int from = 0;
+        while (from < source.length()) {
+            int to = source.indexOf('\n', Math.min(from + chunkSize, source.length()) - 1);
+            to = to < 0 ? source.length() : to + 1;
+            bounds.add(to);
+            from = to;
+        }
+
+        int chunks = bounds.size() - 1;
+        Scanner[] scanners = new Scanner[chunks];
+        List<Callable<TokenBuffer>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            scanners[i] = new Scanner(context, source, bounds.get(i), bounds.get(i + 1));
+            tasks.add(scanners[i]::scanChunk);
+        }
+        pool.invokeAll(tasks);
+
+        TokenBuffer tokens = new TokenBuffer(source);
+        int position = 0;
+        int line = 1;
+        for (int i = 0; i < chunks; i++) {
+            int to = bounds.get(i + 1);
+            // entirely inside a token of an earlier chunk
+            if (position >= to) continue;
+
+            Scanner scanner = scanners[i];
+            if (position != bounds.get(i)) {
+                scanner = new Scanner(context, source, position, to);
+            }
+
+            // a no-op for a chunk the pool already scanned
+            tokens.addAll(scanner.scanChunk(), line - 1);
+            scanner.reportErrors(line - 1);
+            line += scanner.line() - 1;
+            position = scanner.position();
+        }
+
+        tokens.add(EOF, source.length(), 0, line);
+        return tokens;
+    }
+}
@@ -16,12 +16,51 @@ class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // where syntax errors are reported
+    private final RunContext context;
+    private final TokenSource source;
+    // the token yet to consume and the most recently consumed one, pulled from source on demand
+    private Token next;
+    private Token previous = null;
     private boolean ternaryScope = false;
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    // set when function bodies are only skipped over, to be parsed on their first call
+    private final TokenBuffer lazyTokens;
+    // buffer index of next
+    private int nextIndex;
+
+    // set when scopes are resolved while parsing instead of by a separate Resolver pass
+    private final FusedResolver resolver;
+
+    Parser(RunContext context, List<Token> tokens) {
+        this(context, tokens.iterator()::next);
+    }
+
+    Parser(RunContext context, TokenSource source) {
+        this(context, source, 0, null, null);
+    }
+
+    Parser(RunContext context, TokenSource source, FusedResolver resolver) {
+        this(context, source, 0, null, resolver);
+    }
+
+    Parser(RunContext context, TokenBuffer tokens, boolean lazyBodies) {
+        this(context, tokens.cursor(0), 0, lazyBodies ? tokens : null, null);
+    }
+
+    private Parser(RunContext context, TokenSource source, int origin, TokenBuffer lazyTokens,
+            FusedResolver resolver) {
+        this.context = context;
+        this.source = source;
+        this.lazyTokens = lazyTokens;
+        this.resolver = resolver;
+        this.next = source.nextToken();
+        this.nextIndex = origin;
+    }
+
+    // parses a body skipped by a lazy parser: its statements, starting at the given token, and the closing '}'
+    static List<Stmt> parseBody(RunContext context, TokenBuffer tokens, int start) {
+        return new Parser(context, tokens.cursor(start), start, tokens, null).block();
     }
 
     // method to kick off parsing
@@ -33,6 +72,16 @@ class Parser {
         return statements;
     }
 
+    // for parsing one top-level statement at a time: true while there are tokens left
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // the next top-level statement, null if it had a syntax error
+    Stmt next() {
+        return declaration();
+    }
+
     // expanding expression to equality rule
     private Expr expression() {
         return ternary();
@@ -57,14 +106,18 @@ class Parser {
     // classDeclaration
     private Stmt classDeclaration() {
         Token name = consume(IDENTIFIER, "Expect class name.");
+        FusedResolver.ClassType enclosingClass = null;
+        if (resolver != null) enclosingClass = resolver.beginClass(name);
 
         Expr.Variable superclass = null;
         if (match(LESS)) {
             consume(IDENTIFIER, "Expect superclass name");
             superclass = new Expr.Variable(previous());
+            if (resolver != null) resolver.superclass(name, superclass);
         }
 
         consume(LEFT_BRACE, "Except '{' before class body");
+        if (resolver != null) resolver.beginMethods();
 
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
@@ -72,6 +125,7 @@ class Parser {
         }
 
         consume(RIGHT_BRACE, "Expect '}' after class body.");
+        if (resolver != null) resolver.endClass(enclosingClass, superclass != null);
 
         return new Stmt.Class(name, superclass, methods);
     }
@@ -89,8 +143,13 @@ class Parser {
         if (match(WHILE))
             return whileStatement();
         // for block scope stating
-        if (match(LEFT_BRACE))
-            return new Stmt.Block(block());
+        if (match(LEFT_BRACE)) {
+            if (resolver == null) return new Stmt.Block(block());
+            resolver.beginScope();
+            List<Stmt> statements = block();
+            resolver.endScope();
+            return new Stmt.Block(statements);
+        }
         return expressionStatement();
     }
 
@@ -101,7 +160,10 @@ class Parser {
         Stmt initializer;
         if (match(SEMICOLON)) {
             return null;
-        } else if (match(VAR)) {
+        }
+        // the scopes of the blocks built below: one around the whole loop, one around body and increment
+        if (resolver != null) resolver.beginScope();
+        if (match(VAR)) {
             initializer = varDeclaration();
         } else {
             initializer = expressionStatement();
@@ -115,11 +177,16 @@ class Parser {
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)) {
+            if (resolver != null) resolver.beginScope();
             increment = expression();
         }
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Stmt body = statement();
+        if (resolver != null) {
+            if (increment != null) resolver.endScope();
+            resolver.endScope();
+        }
 
         // Desugaring for-loop into something like below
         /*
@@ -179,18 +246,21 @@ class Parser {
             value = expression();
         }
         consume(SEMICOLON, "Expect ';' after return value.");
+        if (resolver != null) resolver.checkReturn(keyword, value != null);
         return new Stmt.Return(keyword, value);
     }
 
     // variable declaration statement
     private Stmt varDeclaration() {
         Token name = consume(IDENTIFIER, "Except variable name.");
+        if (resolver != null) resolver.declare(name);
 
         Expr initializer = null;
         if (match(EQUAL)) {
             initializer = expression();
         }
         consume(SEMICOLON, "Except ';' after variable declaration.");
+        if (resolver != null) resolver.define(name);
         return new Stmt.Var(name, initializer);
     }
 
@@ -215,6 +285,8 @@ class Parser {
     // for function statement
     private Stmt.Function function(String kind) {
         Token name = consume(IDENTIFIER, "Except " + kind + " name.");
+        FusedResolver.FunctionType enclosingFunction = null;
+        if (resolver != null) enclosingFunction = resolver.beginFunction(name, kind);
 
         // Parsing parameter list and pair of parentheses wrapped around it
         consume(LEFT_PAREN, "Except '(' after " + kind + " name.");
@@ -229,13 +301,28 @@ class Parser {
 
                 parameters.add(
                         consume(IDENTIFIER, "Expect parameter name"));
+                if (resolver != null) resolver.parameter(previous());
             } while (match(COMMA));
         }
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
         // function body
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazyTokens != null) {
+            // only find where the body ends, an unclosed body is parsed right away to report the error
+            int start = nextIndex;
+            int end = lazyTokens.matchingBrace(start);
+            if (end >= 0) {
+                TokenBuffer.Cursor cursor = (TokenBuffer.Cursor) source;
+                cursor.seek(end);
+                next = cursor.nextToken();
+                nextIndex = end;
+                consume(RIGHT_BRACE, "Expect '}' after block.");
+                return new Stmt.Function(name, parameters, new LazyBody(context, lazyTokens, start, end, name));
+            }
+        }
         List<Stmt> body = block();
+        if (resolver != null) resolver.endFunction(enclosingFunction);
         return new Stmt.Function(name, parameters, body);
     }
 
@@ -279,13 +366,15 @@ class Parser {
 
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
+                Expr.Assign assign = new Expr.Assign(name, value);
+                if (resolver != null) resolver.resolveLocal(assign, name);
+                return assign;
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.object, get.name, value);
             }
             else if (expr instanceof Expr.Ternary){
-                System.out.println("null");
+                context.out.println("null");
             }
             error(equals, "Invalid assignment target");
         }
@@ -431,15 +520,22 @@ class Parser {
             Token keyword = previous();
             consume(DOT, "Expect '.' after super.");
             Token method = consume(IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
+            Expr.Super expr = new Expr.Super(keyword, method);
+            if (resolver != null) resolver.resolveSuper(expr);
+            return expr;
         }
 
         if (match(THIS)) {
-            return new Expr.This(previous());
+            Expr.This expr = new Expr.This(previous());
+            if (resolver != null) resolver.resolveThis(expr);
+            return expr;
         }
 
         if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
+            Expr.Variable expr = new Expr.Variable(previous());
+            // an assignment target is resolved as the Assign it becomes
+            if (resolver != null && !check(EQUAL)) resolver.resolveVariable(expr);
+            return expr;
         }
 
         if (match(LEFT_PAREN)) {
@@ -468,7 +564,7 @@ class Parser {
     // consume. looks if next token is of expected types.
     private Token consume(TokenType type, String message) {
         if (ternaryScope && type == SEMICOLON) {
-            return new Token(type, ";", null, current);
+            return new Token(type, ";", null, peek().line);
         }
 
         if (check(type))
@@ -486,8 +582,11 @@ class Parser {
 
     // consumes current token and returns it.
     private Token advance() {
-        if (!isAtEnd())
-            current++;
+        if (!isAtEnd()) {
+            previous = next;
+            next = source.nextToken();
+            nextIndex++;
+        }
         return previous();
     }
 
@@ -498,16 +597,16 @@ class Parser {
 
     // current tokens that's yet to consume
     private Token peek() {
-        return tokens.get(current);
+        return next;
     }
 
     // most recently consumed token
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        context.error(token, message);
         return new ParseError();
     }
 
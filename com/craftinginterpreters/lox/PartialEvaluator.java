@@ -0,0 +1,383 @@
+// Finds top-level functions that are pure (no print, no natives, no instances, no writes outside their own locals)
+// and evaluates calls to them with constant arguments once, in a sandboxed interpreter, before the program runs.
+// The interpreter then uses the folded value as if the call were a literal.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class PartialEvaluator implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // statements/iterations a single folded call may run before we give up on it
+    private static final long FUEL = 1_000_000;
+
+    private final SideTables tables;
+
+    // candidate functions, by name, with the index of the top-level statement declaring them
+    private final Map<String, Stmt.Function> functions = new HashMap<>();
+    private final Map<String, Integer> declaredAt = new HashMap<>();
+    private final Set<String> pure = new HashSet<>();
+    // the candidates each pure function calls
+    private final Map<String, Set<String>> calls = new HashMap<>();
+    // the last top-level statement declaring a function a pure function can reach, by name
+    private final Map<String, Integer> lastReachable = new HashMap<>();
+
+    private enum Pass {
+        ASSIGNMENTS, PURITY, FOLD
+    }
+
+    private Pass pass;
+
+    // globals written anywhere in the program
+    private final Set<String> assigned = new HashSet<>();
+
+    // purity check state for the function being checked
+    private boolean isPure;
+    private Set<String> dependencies;
+
+    // folding state
+    private int statementIndex;
+    private Interpreter sandbox = null;
+    private final Map<String, Object> folded = new HashMap<>();
+
+    // marks a call that couldn't be folded
+    private static final Object UNFOLDABLE = new Object();
+
+    PartialEvaluator(SideTables tables) {
+        this.tables = tables;
+    }
+
+    void evaluate(List<Stmt> statements) {
+        findCandidates(statements);
+        findPureFunctions();
+        if (pure.isEmpty()) return;
+
+        pass = Pass.FOLD;
+        for (statementIndex = 0; statementIndex < statements.size(); statementIndex++) {
+            walk(statements.get(statementIndex));
+        }
+    }
+
+    // global functions declared exactly once and never assigned or shadowed by a global var/class
+    private void findCandidates(List<Stmt> statements) {
+        Set<String> excluded = new HashSet<>(Arrays.asList("clock", "Input"));
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            if (statement instanceof Stmt.Function) {
+                String name = ((Stmt.Function) statement).name.lexeme;
+                if (functions.containsKey(name)) excluded.add(name);
+                functions.put(name, (Stmt.Function) statement);
+                declaredAt.put(name, i);
+            } else if (statement instanceof Stmt.Var) {
+                excluded.add(((Stmt.Var) statement).name.lexeme);
+            } else if (statement instanceof Stmt.Class) {
+                excluded.add(((Stmt.Class) statement).name.lexeme);
+            }
+        }
+        pass = Pass.ASSIGNMENTS;
+        walk(statements);
+        excluded.addAll(assigned);
+        functions.keySet().removeAll(excluded);
+    }
+
+    // assume every candidate is pure, then drop the impure ones and anything calling them until nothing changes
+    private void findPureFunctions() {
+        pass = Pass.PURITY;
+        for (Map.Entry<String, Stmt.Function> entry : functions.entrySet()) {
+            isPure = true;
+            dependencies = new HashSet<>();
+            walk(entry.getValue().body);
+            if (isPure) {
+                pure.add(entry.getKey());
+                calls.put(entry.getKey(), dependencies);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = pure.removeIf(name -> !pure.containsAll(calls.get(name)));
+        }
+    }
+
+    private void impure() {
+        isPure = false;
+    }
+
+    // numbers, strings, booleans and nil written directly in the source (a leading '-' included)
+    private static boolean isConstant(Expr expr) {
+        if (expr instanceof Expr.Literal) return true;
+        if (expr instanceof Expr.Grouping) return isConstant(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == TokenType.MINUS && unary.right instanceof Expr.Literal
+                    && ((Expr.Literal) unary.right).value instanceof Double;
+        }
+        return false;
+    }
+
+    private static Object constantValue(Expr expr) {
+        if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).value;
+        if (expr instanceof Expr.Grouping) return constantValue(((Expr.Grouping) expr).expression);
+        return -(double) ((Expr.Literal) ((Expr.Unary) expr).right).value;
+    }
+
+    private void tryFold(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Variable) || tables.isLocal(expr.callee)) return;
+
+        String name = ((Expr.Variable) expr.callee).name.lexeme;
+        // the function, and every function it may call, must already be defined by the time the calling statement
+        // runs (the sandbox defines them all, so an undefined one would not fail there)
+        if (!pure.contains(name) || lastReachable(name) >= statementIndex) return;
+
+        Stmt.Function function = functions.get(name);
+        if (function.params.size() != expr.arguments.size()) return;
+
+        List<Object> arguments = new ArrayList<>();
+        StringBuilder key = new StringBuilder(name);
+        for (Expr argument : expr.arguments) {
+            if (!isConstant(argument)) return;
+            Object value = constantValue(argument);
+            arguments.add(value);
+            key.append('\0').append(value == null ? "nil" : value.getClass().getSimpleName() + ":" + value);
+        }
+
+        Object value = folded.computeIfAbsent(key.toString(), k -> run(name, arguments));
+        if (value != UNFOLDABLE) tables.fold(expr, value);
+    }
+
+    // the index of the last top-level statement declaring the function or one it can reach through its calls
+    private int lastReachable(String name) {
+        Integer last = lastReachable.get(name);
+        if (last != null) return last;
+
+        int latest = -1;
+        Set<String> reached = new HashSet<>();
+        List<String> pending = new ArrayList<>();
+        pending.add(name);
+        while (!pending.isEmpty()) {
+            String next = pending.remove(pending.size() - 1);
+            if (!reached.add(next)) continue;
+            latest = Math.max(latest, declaredAt.get(next));
+            pending.addAll(calls.get(next));
+        }
+        lastReachable.put(name, latest);
+        return latest;
+    }
+
+    // runs the call in a separate interpreter holding only the pure functions
+    private Object run(String name, List<Object> arguments) {
+        if (sandbox == null) {
+            // nothing the sandbox runs reports anything, errors are caught below
+            sandbox = new Interpreter(new RunContext());
+            List<Stmt> declarations = new ArrayList<>();
+            for (String pureName : pure) {
+                declarations.add(functions.get(pureName));
+            }
+            new Resolver(sandbox).resolve(declarations);
+            sandbox.interpret(declarations, false);
+        }
+
+        try {
+            sandbox.refuel(FUEL);
+            LoxFunction function = (LoxFunction) sandbox.globals.get(functions.get(name).name);
+            Object value = function.call(sandbox, arguments);
+            // only plain values can stand in for the call
+            if (value == null || value instanceof Double || value instanceof String || value instanceof Boolean) {
+                return value;
+            }
+            return UNFOLDABLE;
+        } catch (RuntimeError | Interpreter.OutOfFuel | StackOverflowError error) {
+            // leave it to the real run, which reports the error where it happens
+            return UNFOLDABLE;
+        } finally {
+            sandbox.refuel(-1);
+        }
+    }
+
+    private void walk(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void walk(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            walk(statement);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        walk(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (pass == Pass.PURITY) {
+            impure();
+            return null;
+        }
+        for (Stmt.Function method : stmt.methods) {
+            walk(method.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // closures would capture the caller's frame
+        if (pass == Pass.PURITY) {
+            impure();
+            return null;
+        }
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        walk(stmt.condition);
+        walk(stmt.thenBranch);
+        walk(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if (pass == Pass.PURITY) impure();
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        walk(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        walk(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        walk(stmt.condition);
+        walk(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (!tables.isLocal(expr)) {
+            if (pass == Pass.PURITY) impure();
+            if (pass == Pass.ASSIGNMENTS) assigned.add(expr.name.lexeme);
+        }
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        walk(expr.condition);
+        walk(expr.trueCase);
+        walk(expr.falseCase);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (pass == Pass.FOLD) tryFold(expr);
+        walk(expr.callee);
+        for (Expr argument : expr.arguments) {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        if (pass == Pass.PURITY) impure();
+        walk(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        walk(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        if (pass == Pass.PURITY) impure();
+        walk(expr.object);
+        walk(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (pass == Pass.PURITY) impure();
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (pass == Pass.PURITY) impure();
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        walk(expr.right);
+        return null;
+    }
+
+    // globals may only be read when they name another candidate function
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (pass == Pass.PURITY && !tables.isLocal(expr)) {
+            if (functions.containsKey(expr.name.lexeme)) {
+                dependencies.add(expr.name.lexeme);
+            } else {
+                impure();
+            }
+        }
+        return null;
+    }
+}
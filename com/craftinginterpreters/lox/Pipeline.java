@@ -0,0 +1,85 @@
+// Runs a script while it is still being parsed: a parser thread parses and resolves one top-level statement at a
+// time and hands each over through a bounded queue to the interpreter on the calling thread.
+// Globals are late bound, so a function may still call one declared further down as long as it runs after it.
+
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+class Pipeline {
+    // how many parsed statements may wait for the interpreter
+    private static final int CAPACITY = 64;
+    // put after the last statement
+    private static final Stmt END = new Stmt.Expression(new Expr.Literal(null), false);
+
+    private final Parser parser;
+    // null when the Resolver pass runs on each statement
+    private final FusedResolver fusedResolver;
+    private final Interpreter interpreter;
+    private final BlockingQueue<Stmt> queue = new ArrayBlockingQueue<>(CAPACITY);
+    // set by the interpreter after a runtime error, nothing more needs parsing
+    private volatile boolean stopped = false;
+
+    Pipeline(Parser parser, FusedResolver fusedResolver, Interpreter interpreter) {
+        this.parser = parser;
+        this.fusedResolver = fusedResolver;
+        this.interpreter = interpreter;
+    }
+
+    // statements before the first error have already run when it is reported
+    void run() {
+        Thread producer = new Thread(this::produce, "lox-parser");
+        producer.start();
+
+        try {
+            for (;;) {
+                Stmt statement = queue.take();
+                if (statement == END) break;
+                if (stopped) continue;
+
+                interpreter.interpret(Collections.singletonList(statement), false);
+                if (interpreter.context.hadRuntimeError) stopped = true;
+            }
+            producer.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // after an error nothing more is handed over, but parsing goes on to report the remaining errors
+    private void produce() {
+        Resolver resolver = new Resolver(interpreter);
+        // like the Resolver pass, resolution stops at the first syntax error
+        boolean hadSyntaxError = false;
+        try {
+            while (parser.hasNext() && !stopped) {
+                boolean errorsBefore = interpreter.context.hadError;
+                Stmt statement = parser.next();
+                if (statement == null || interpreter.context.hadError && !errorsBefore) hadSyntaxError = true;
+                if (hadSyntaxError) continue;
+
+                if (fusedResolver != null) {
+                    fusedResolver.reportErrors();
+                } else {
+                    resolver.resolve(Collections.singletonList(statement));
+                }
+
+                if (!interpreter.context.hadError) queue.put(statement);
+            }
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putEnd();
+        }
+    }
+
+    private void putEnd() {
+        try {
+            queue.put(END);
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+// A compiled script with its top level already run (see LoxEngine). It never changes afterwards, so one
+// PreparedScript can be shared by any number of threads, each instantiating its own ScriptInstances.
+
+package com.craftinginterpreters.lox;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+
+public final class PreparedScript {
+    private final Baseline baseline;
+    private final PrintStream out;
+
+    PreparedScript(Baseline baseline, PrintStream out) {
+        this.baseline = baseline;
+        this.out = out;
+    }
+
+    // an instance starting from the globals the top level left, printing where the script was compiled to. it costs
+    // what the instance changes, not the size of the script
+    public ScriptInstance instantiate() {
+        return instantiate(out);
+    }
+
+    public ScriptInstance instantiate(PrintStream out) {
+        return new ScriptInstance(baseline.interpreter(new RunContext(InputStream.nullInputStream(), out, out)));
+    }
+}
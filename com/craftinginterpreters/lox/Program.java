@@ -0,0 +1,46 @@
+// A parsed and resolved program: its statements and the side tables the interpreter reads for them. Nothing in it
+// changes once it is compiled, so one Program can be run by any number of interpreters, on any number of threads.
+
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+final class Program {
+    final List<Stmt> statements;
+    final SideTables tables;
+
+    // freezes a copy of the tables
+    Program(List<Stmt> statements, SideTables tables) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.tables = tables.freeze();
+    }
+
+    // scans, parses, resolves, shakes and folds a whole script; null after reporting its errors to the context.
+    // the entry points are global functions the host calls once the script ran, kept by the shaking
+    static Program compile(String source, RunContext context, String... entryPoints) {
+        return compile(source, context, true, entryPoints);
+    }
+
+    // like compile, but keeps every declaration, for a host that may call any global function (see LoxEngine)
+    static Program compileLibrary(String source, RunContext context) {
+        return compile(source, context, false);
+    }
+
+    private static Program compile(String source, RunContext context, boolean shake, String... entryPoints) {
+        List<Stmt> statements = new Parser(context, ParallelScanner.scan(context, source), false).parse();
+        if (context.hadError) return null;
+
+        // resolved whole, so a mistake in a function nothing calls is still a compile error. the tables then have
+        // entries for shaken nodes, which nothing reads (and ProgramFormat doesn't write)
+        SideTables tables = new SideTables();
+        new Resolver(tables, context).resolve(statements);
+        if (context.hadError) return null;
+
+        if (shake) statements = new TreeShaker().shake(statements, entryPoints);
+
+        new PartialEvaluator(tables).evaluate(statements);
+        new EscapeAnalysis(tables).analyze(statements);
+        return new Program(statements, tables);
+    }
+}
@@ -0,0 +1,325 @@
+// Binary layout shared by the CompiledCache and heap images: a resolved program (its AstArena form plus the
+// interpreter's side tables for its nodes, keyed by node offset), the constant values, and a trailing CRC32.
+
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+class ProgramFormat {
+    // tags of the values in constant pools
+    static final byte NIL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte NUMBER = 3;
+    static final byte STRING = 4;
+
+    // a program read back, with the decoder that rebuilt it for looking up further node offsets
+    static final class Decoded {
+        final Program program;
+        private final AstArena.Decoder decoder;
+
+        private Decoded(Program program, AstArena.Decoder decoder) {
+            this.program = program;
+            this.decoder = decoder;
+        }
+
+        <T> T node(int offset, Class<T> type) throws IOException {
+            return ProgramFormat.node(decoder, offset, type);
+        }
+    }
+
+    // writes the program with the entries of its side tables for nodes it still has (not those of shaken
+    // declarations), returning the encoder to look up node offsets with
+    static AstArena.Encoder writeProgram(DataOutputStream out, Program program) throws IOException {
+        AstArena.Encoder encoder = new AstArena.Encoder();
+        writeArena(out, encoder.encode(program.statements));
+
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(table);
+        int count = 0;
+        for (Map.Entry<Expr, Integer> local : program.tables.locals().entrySet()) {
+            int offset = encoder.offsetOf(local.getKey());
+            if (offset < 0) continue;
+            entries.writeInt(offset);
+            entries.writeInt(local.getValue());
+            count++;
+        }
+        out.writeInt(count);
+        table.writeTo(out);
+
+        table.reset();
+        count = 0;
+        for (Map.Entry<Stmt, List<String>> release : program.tables.releases().entrySet()) {
+            int offset = encoder.offsetOf(release.getKey());
+            if (offset < 0) continue;
+            entries.writeInt(offset);
+            entries.writeInt(release.getValue().size());
+            for (String name : release.getValue()) {
+                writeString(entries, name);
+            }
+            count++;
+        }
+        out.writeInt(count);
+        table.writeTo(out);
+
+        table.reset();
+        count = 0;
+        for (Map.Entry<Expr, Object> constant : program.tables.constants().entrySet()) {
+            int offset = encoder.offsetOf(constant.getKey());
+            if (offset < 0) continue;
+            entries.writeInt(offset);
+            writeValue(entries, constant.getValue());
+            count++;
+        }
+        out.writeInt(count);
+        table.writeTo(out);
+
+        // a replaced var with its init, and the gets and sets of its fields (their locals follow from the names)
+        table.reset();
+        count = 0;
+        for (Map.Entry<Stmt.Var, EscapeAnalysis.Replacement> scalar : program.tables.scalars().entrySet()) {
+            int offset = encoder.offsetOf(scalar.getKey());
+            int init = encoder.offsetOf(scalar.getValue().init);
+            if (offset < 0 || init < 0) continue;
+            entries.writeInt(offset);
+            entries.writeInt(init);
+            count++;
+        }
+        out.writeInt(count);
+        table.writeTo(out);
+
+        table.reset();
+        count = 0;
+        for (Expr access : program.tables.scalarFields().keySet()) {
+            int offset = encoder.offsetOf(access);
+            if (offset < 0) continue;
+            entries.writeInt(offset);
+            count++;
+        }
+        out.writeInt(count);
+        table.writeTo(out);
+        return encoder;
+    }
+
+    // bad offsets, kinds and lengths are all reported as IOExceptions
+    static Decoded readProgram(DataInputStream in) throws IOException {
+        AstArena.Decoder decoder;
+        List<Stmt> statements;
+        try {
+            decoder = new AstArena.Decoder(readArena(in));
+            statements = decoder.decode();
+        } catch (RuntimeException error) {
+            throw new IOException("Bad program: " + error.getMessage());
+        }
+
+        SideTables tables = new SideTables();
+        for (int i = readCount(in, 8); i > 0; i--) {
+            tables.resolve(node(decoder, in.readInt(), Expr.class), in.readInt());
+        }
+
+        for (int i = readCount(in, 8); i > 0; i--) {
+            Stmt statement = node(decoder, in.readInt(), Stmt.class);
+            List<String> dead = new ArrayList<>();
+            for (int j = readCount(in, 4); j > 0; j--) {
+                dead.add(readString(in));
+            }
+            tables.release(statement, dead);
+        }
+
+        for (int i = readCount(in, 5); i > 0; i--) {
+            tables.fold(node(decoder, in.readInt(), Expr.Call.class), readValue(in));
+        }
+
+        for (int i = readCount(in, 8); i > 0; i--) {
+            Stmt.Var var = node(decoder, in.readInt(), Stmt.Var.class);
+            Stmt.Function init = node(decoder, in.readInt(), Stmt.Function.class);
+            tables.replace(var, replacement(var, init));
+        }
+
+        for (int i = readCount(in, 4); i > 0; i--) {
+            int offset = in.readInt();
+            Expr access = node(decoder, offset, Expr.class);
+            if (access instanceof Expr.Get && ((Expr.Get) access).object instanceof Expr.Variable) {
+                Expr.Get get = (Expr.Get) access;
+                tables.replaceField(get, EscapeAnalysis.local(((Expr.Variable) get.object).name, get.name));
+            } else if (access instanceof Expr.Set && ((Expr.Set) access).object instanceof Expr.Variable) {
+                Expr.Set set = (Expr.Set) access;
+                tables.replaceField(set, EscapeAnalysis.local(((Expr.Variable) set.object).name, set.name));
+            } else {
+                throw new IOException("No field access of a variable at offset " + offset);
+            }
+        }
+        return new Decoded(new Program(statements, tables), decoder);
+    }
+
+    // the replacement of a var as the EscapeAnalysis made it, checked to fit the var and the init read back
+    private static EscapeAnalysis.Replacement replacement(Stmt.Var var, Stmt.Function init) throws IOException {
+        if (!(var.initializer instanceof Expr.Call)) throw new IOException("Bad replaced var '" + var.name.lexeme + "'.");
+        for (Stmt statement : init.body) {
+            if (!(statement instanceof Stmt.Expression && ((Stmt.Expression) statement).expression instanceof Expr.Set)) {
+                throw new IOException("Bad init of replaced var '" + var.name.lexeme + "'.");
+            }
+        }
+        return new EscapeAnalysis.Replacement(var, init);
+    }
+
+    // the node at the given offset, checked to be of the expected class
+    private static <T> T node(AstArena.Decoder decoder, int offset, Class<T> type) throws IOException {
+        Object node;
+        try {
+            node = decoder.node(offset);
+        } catch (IndexOutOfBoundsException error) {
+            node = null;
+        }
+        if (!type.isInstance(node)) throw new IOException("No " + type.getSimpleName() + " at offset " + offset);
+        return type.cast(node);
+    }
+
+    // appends the CRC32 of everything written so far
+    static void writeChecksum(ByteArrayOutputStream bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        new DataOutputStream(bytes).writeLong(crc.getValue());
+    }
+
+    // a stream over the contents in front of the checksum, null if it doesn't match
+    static DataInputStream checked(byte[] bytes) {
+        if (bytes.length < Long.BYTES) return null;
+
+        int length = bytes.length - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        long stored = 0;
+        for (int i = length; i < bytes.length; i++) {
+            stored = (stored << 8) | (bytes[i] & 0xff);
+        }
+        if (crc.getValue() != stored) return null;
+        return new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+    }
+
+    private static void writeArena(DataOutputStream out, AstArena arena) throws IOException {
+        writeInts(out, arena.nodes);
+        writeInts(out, arena.lists);
+        out.writeInt(arena.tokenTypes.length);
+        out.write(arena.tokenTypes);
+        writeInts(out, arena.tokenLexemes);
+        writeInts(out, arena.tokenLiterals);
+        writeInts(out, arena.tokenLines);
+        out.writeInt(arena.strings.length);
+        for (String string : arena.strings) {
+            writeString(out, string);
+        }
+        out.writeInt(arena.constants.length);
+        for (Object constant : arena.constants) {
+            writeValue(out, constant);
+        }
+        out.writeInt(arena.program);
+    }
+
+    private static AstArena readArena(DataInputStream in) throws IOException {
+        int[] nodes = readInts(in);
+        int[] lists = readInts(in);
+        byte[] tokenTypes = new byte[readCount(in, 1)];
+        in.readFully(tokenTypes);
+        int[] tokenLexemes = readInts(in);
+        int[] tokenLiterals = readInts(in);
+        int[] tokenLines = readInts(in);
+        String[] strings = new String[readCount(in, 4)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        Object[] constants = new Object[readCount(in, 1)];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = readValue(in);
+        }
+        return new AstArena(nodes, lists, tokenTypes, tokenLexemes, tokenLiterals, tokenLines, strings, constants,
+                in.readInt());
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[readCount(in, 4)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    // a count of items taking at least the given number of bytes each, checked against what is left
+    static int readCount(DataInputStream in, int itemSize) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || (long) count * itemSize > in.available()) throw new IOException("Bad count " + count);
+        return count;
+    }
+
+    // length-prefixed UTF-8, as writeUTF can't hold strings over 64K
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in, 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // nil, booleans, numbers and strings
+    static boolean isConstant(Object value) {
+        return value == null || value instanceof Boolean || value instanceof Double || value instanceof String;
+    }
+
+    static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NIL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else {
+            throw new IllegalArgumentException("Can't write " + value.getClass().getSimpleName());
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        return readValue(in, in.readByte());
+    }
+
+    // a value whose tag was already read
+    static Object readValue(DataInputStream in, byte tag) throws IOException {
+        switch (tag) {
+            case NIL:
+                return null;
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case NUMBER:
+                return in.readDouble();
+            case STRING:
+                return readString(in);
+            default:
+                throw new IOException("Bad value tag " + tag);
+        }
+    }
+}
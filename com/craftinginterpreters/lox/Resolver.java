@@ -2,20 +2,33 @@
 
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 import com.craftinginterpreters.lox.Expr.Logical;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
+    // where the depths and releases go
+    private final SideTables tables;
+    private final RunContext context;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // liveness info kept in parallel with scopes
+    private final Stack<Liveness> liveness = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private int functionDepth = 0;
+
+    Resolver(SideTables tables, RunContext context) {
+        this.tables = tables;
+        this.context = context;
+    }
 
     Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+        this(interpreter.tables(), interpreter.context);
     }
 
     private enum FunctionType {
@@ -28,6 +41,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private ClassType currentClass = ClassType.NONE;
 
+    // tracks, for one scope, the statement of its own statement list that last touches each variable
+    private static class Liveness {
+        final int functionDepth;
+        Stmt current = null;
+        final Map<String, Stmt> lastUse = new HashMap<>();
+        final Set<String> captured = new HashSet<>();
+
+        Liveness(int functionDepth) {
+            this.functionDepth = functionDepth;
+        }
+    }
+
     // For Block statement
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
@@ -46,7 +71,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            context.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
         
         if (stmt.superclass != null){
@@ -114,12 +139,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitReturnStmt(Stmt.Return stmt) {
         // check if the return statement is in function or in global
         if (currentFunction == FunctionType.NONE){
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            context.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER){
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                context.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             
             resolve(stmt.value);
@@ -215,10 +240,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr){
         if (currentClass == ClassType.NONE){
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class");
+            context.error(expr.keyword, "Can't use 'super' outside of a class");
         }
         else if (currentClass != ClassType.SUBCLASS){
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            context.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
         resolveLocal(expr, expr.keyword);
         return null;
@@ -228,7 +253,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr){
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class");
+            context.error(expr.keyword, "Can't use 'this' outside of a class");
             return null;
         }
 
@@ -246,7 +271,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitVariableExpr(Expr.Variable expr) {
         // if stack holding block is not empty,
         if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            context.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
         resolveLocal(expr, expr.name);
@@ -264,15 +289,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     void resolve(List<Stmt> statements) {
+        // top level statements (globals) are never released
+        Liveness scope = liveness.isEmpty() ? null : liveness.peek();
         for (Stmt statement : statements) {
+            if (scope != null) scope.current = statement;
             resolve(statement);
         }
+        if (scope != null) scope.current = null;
     }
 
     // function body resolve
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        if (function.body instanceof LazyBody && !((LazyBody) function.body).isParsed()) {
+            deferFunction(function, type, (LazyBody) function.body);
+            return;
+        }
+
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        functionDepth++;
 
         beginScope();
         for (Token param : function.params) {
@@ -282,17 +317,60 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(function.body);
         endScope();
 
+        functionDepth--;
         currentFunction = enclosingFunction;  // for nested function
     }
 
+    // a lazily parsed body is resolved on its first call, against a copy of the scopes visible here
+    private void deferFunction(Stmt.Function function, FunctionType type, LazyBody body) {
+        List<Map<String, Boolean>> enclosing = new ArrayList<>();
+        for (Map<String, Boolean> scope : scopes) {
+            enclosing.add(new HashMap<>(scope));
+        }
+        ClassType enclosingClass = currentClass;
+
+        // anything the body might mention has to stay alive, as for any closure
+        for (String name : body.identifiers()) {
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                if (scopes.get(i).containsKey(name)) {
+                    liveness.get(i).captured.add(name);
+                    break;
+                }
+            }
+        }
+
+        body.deferResolution(() -> {
+            Resolver resolver = new Resolver(tables, context);
+            for (Map<String, Boolean> scope : enclosing) {
+                resolver.scopes.push(scope);
+                // outer scopes were already released, a negative depth makes every use a capture
+                resolver.liveness.push(new Liveness(-1));
+            }
+            resolver.currentClass = enclosingClass;
+            resolver.resolveFunction(function, type);
+        });
+    }
+
     // new block scope is created like
     private void beginScope() {
         scopes.push(new HashMap<String, Boolean>());
+        liveness.push(new Liveness(functionDepth));
     }
 
     // exiting one scope
     private void endScope() {
         scopes.pop();
+
+        // every variable that isn't captured by a closure can be dropped after the statement that last uses it
+        Map<Stmt, List<String>> dead = new HashMap<>();
+        Liveness scope = liveness.pop();
+        for (Map.Entry<String, Stmt> entry : scope.lastUse.entrySet()) {
+            if (scope.captured.contains(entry.getKey())) continue;
+            dead.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+        for (Map.Entry<Stmt, List<String>> entry : dead.entrySet()) {
+            tables.release(entry.getKey(), entry.getValue());
+        }
     }
 
     // two step binding to know if the expression is inside of initializer
@@ -302,9 +380,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         Map<String, Boolean> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)){
-            Lox.error(name, "Already a variable with this name in this scope");
+            context.error(name, "Already a variable with this name in this scope");
         }
         scope.put(name.lexeme, false); // value false to state that variable exists but is unavailable
+
+        // a variable that is never used dies right after the statement declaring it
+        Liveness live = liveness.peek();
+        if (live.current != null) live.lastUse.put(name.lexeme, live.current);
     }
 
     private void define(Token name) {
@@ -317,10 +399,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+                tables.resolve(expr, scopes.size() - 1 - i);
+                markUsed(i, name.lexeme);
                 return;
             }
         }
     }
 
-}
\ No newline at end of file
+    // a use from a nested function keeps the variable alive for as long as the closure lives,
+    // any other use moves its death to the enclosing statement of the declaring scope.
+    private void markUsed(int scopeIndex, String name) {
+        Liveness scope = liveness.get(scopeIndex);
+        if (scope.functionDepth != functionDepth) {
+            scope.captured.add(name);
+        } else if (scope.current != null) {
+            scope.lastUse.put(name, scope.current);
+        }
+    }
+}
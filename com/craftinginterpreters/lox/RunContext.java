@@ -0,0 +1,111 @@
+// State of one run: where its input comes from, where its output and error reports go, and whether it had errors. Every Interpreter has its
+// own, so any number of scripts can run side by side in one JVM.
+
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class RunContext {
+    private final InputStream stdin;
+    // created on the first read, so the prompt and the Input native share its buffer
+    private BufferedReader in;
+    final PrintStream out;
+    final PrintStream err;
+
+    // volatile, as a Pipeline parses on another thread than the one interpreting
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+    // set when the run spawns its first task, from then on environments and instances lock themselves on access.
+    // not volatile: it is set by the one thread touching them before any task exists, and starting a task
+    // publishes it to the task
+    boolean concurrent = false;
+    // bumped by each parallel operation, environments created after it started are the callbacks' own
+    int epoch = 0;
+    // set under jlox --serve, for the route native to register handlers with
+    Server server = null;
+    // where the paths a script reads resolve from, the client's directory under the daemon
+    Path directory = Paths.get("");
+    // set by Lox, which runs the event loop after a script or prompt line; the other runs have none, and their timers
+    // and reads would never call back
+    boolean hasEventLoop = false;
+    // created by the first timer or read, run once the script's top level finished
+    private EventLoop events;
+    // every body a lazy parser skipped, checked once the run ends (see LazyBody.check)
+    final List<LazyBody> lazyBodies = Collections.synchronizedList(new ArrayList<>());
+
+    RunContext() {
+        this(System.in, System.out, System.err);
+    }
+
+    RunContext(PrintStream out, PrintStream err) {
+        this(System.in, out, err);
+    }
+
+    RunContext(InputStream stdin, PrintStream out, PrintStream err) {
+        this.stdin = stdin;
+        this.out = out;
+        this.err = err;
+    }
+
+    synchronized BufferedReader in() {
+        if (in == null) in = new BufferedReader(new InputStreamReader(stdin));
+        return in;
+    }
+
+    synchronized EventLoop events() {
+        if (!hasEventLoop) throw new Natives.Failure("Timers and reads only call back in a script or the prompt.");
+        if (events == null) events = new EventLoop(this);
+        return events;
+    }
+
+    // runs the callbacks of the timers and reads the script (or prompt line) left pending, if it has any. the loop
+    // is done with afterwards, the next prompt line starts one of its own
+    void runEvents() {
+        EventLoop loop;
+        synchronized (this) {
+            loop = events;
+        }
+        if (loop == null) return;
+        try {
+            loop.run();
+        } catch (RuntimeError error) {
+            runtimeError(error);
+        } finally {
+            synchronized (this) {
+                events = null;
+            }
+        }
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    // show error
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, token.lexeme + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        err.println("[line " + line + "] Error " + where + ": " + message);
+        hadError = true;
+    }
+
+    // show runtime error
+    void runtimeError(RuntimeError error) {
+        err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+}
@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Checks that ParallelScanner produces the token stream Scanner does: the same types, lexemes, literals and lines,
+// and the same errors in the same order. Every source is scanned chunked at several chunk sizes, down to a line per
+// chunk, so strings, block comments and errors land across chunk boundaries. The sources are the files given and a
+// built-in corpus of such cases. Exits 1 on the first difference.
+// (next to the package-private scanners it checks; the jar leaves it out)
+public class ScanCheck {
+    private static final int[] CHUNK_SIZES = {1, 2, 7, 64, 4096};
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String path : args) {
+            sources.put(path, new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset()));
+        }
+        sources.putAll(corpus());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        int checks = 0;
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            Scan expected = scan(source.getValue(), 0, pool);
+            for (int chunkSize : CHUNK_SIZES) {
+                String difference = expected.difference(scan(source.getValue(), chunkSize, pool));
+                if (difference != null) {
+                    System.err.println(source.getKey() + ", chunks of " + chunkSize + ": " + difference);
+                    System.exit(1);
+                }
+                checks++;
+            }
+        }
+        pool.shutdown();
+        System.out.println(sources.size() + " sources, " + checks + " chunked scans, all the same as Scanner's");
+    }
+
+    // what one scan produced, chunked unless chunkSize is 0
+    private static final class Scan {
+        final List<String> tokens = new ArrayList<>();
+        final String errors;
+
+        Scan(TokenBuffer buffer, String errors) {
+            for (int i = 0; i < buffer.size(); i++) {
+                tokens.add(buffer.type(i) + " '" + buffer.lexeme(i) + "' " + buffer.literal(i)
+                        + " line " + buffer.line(i));
+            }
+            this.errors = errors;
+        }
+
+        // how the other scan differs from this one, null if it doesn't
+        String difference(Scan other) {
+            for (int i = 0; i < Math.min(tokens.size(), other.tokens.size()); i++) {
+                if (!tokens.get(i).equals(other.tokens.get(i))) {
+                    return "token " + i + " is " + other.tokens.get(i) + ", expected " + tokens.get(i);
+                }
+            }
+            if (tokens.size() != other.tokens.size()) {
+                return other.tokens.size() + " tokens, expected " + tokens.size();
+            }
+            if (!Objects.equals(errors, other.errors)) {
+                return "errors\n" + other.errors + "expected\n" + errors;
+            }
+            return null;
+        }
+    }
+
+    private static Scan scan(String source, int chunkSize, ForkJoinPool pool) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(errors, true);
+        RunContext context = new RunContext(InputStream.nullInputStream(), new PrintStream(errors), err);
+        TokenBuffer buffer = chunkSize == 0
+                ? new Scanner(context, source).scanBuffer()
+                : ParallelScanner.scan(context, source, pool, chunkSize);
+        return new Scan(buffer, errors.toString(Charset.defaultCharset()));
+    }
+
+    private static Map<String, String> corpus() {
+        Map<String, String> corpus = new LinkedHashMap<>();
+        corpus.put("empty", "");
+        corpus.put("no newline at the end", "print 1;");
+        corpus.put("blank lines", "\n\n\nvar a = 1;\n\n");
+        corpus.put("multi-line string", "var s = \"one\ntwo\n\nthree\";\nprint s;\n");
+        corpus.put("block comment", "/* one\n two\n three */\nprint 2;\n/* a\n*/ print 3;\n");
+        corpus.put("line comments", "// one\nprint 1; // two\n//\n");
+        corpus.put("unterminated string", "print 1;\nvar s = \"never\nends\n");
+        corpus.put("unterminated comment", "print 1;\n/* never\nends\n");
+        corpus.put("unexpected characters", "print 1;\n@\nvar a = #;\n$ ~\n");
+        corpus.put("numbers and operators", "var x = 12.5 + 3 * (4 - 1) / 2;\nprint x >= 1 and x != 2 or !x;\n");
+        corpus.put("string ending a line", "var s = \"a\n\";\nvar t = \"\n\";\n");
+        corpus.put("generated", generated());
+        return corpus;
+    }
+
+    // a large source of random lines, strings and comments spanning lines included
+    private static String generated() {
+        String[] lines = {
+                "var a = 1;", "fun f(x) { return x * 2.5; }", "class C < B { init() { this.x = nil; } }",
+                "print \"text\";", "var s = \"spans\na line\";", "/* a comment\nover\nlines */", "// to the end",
+                "if (a <= 2 and !false) print a; else print -a;", "while (a < 10) a = a + 1;", "",
+                "@", "x.y.z(1, \"two\", 3.0);",
+        };
+        Random random = new Random(37);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            source.append(lines[random.nextInt(lines.length)]).append('\n');
+        }
+        return source.toString();
+    }
+}
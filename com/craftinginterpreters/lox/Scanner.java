@@ -11,11 +11,18 @@ import javax.sound.sampled.Line;
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
+    private final RunContext context;
     private final String source;
-    private final List<Token> tokens = new ArrayList<>(); // tokens storage after scanning
+    private final TokenBuffer tokens; // tokens storage after scanning
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    // no token starts at or after this index
+    private final int end;
+
+    // errors of a chunk scan, held until ParallelScanner knows its first line; null when reported right away
+    private final List<Integer> errorLines;
+    private final List<String> errorMessages;
 
     // defining set of reserved words in a map
     private static final Map<String, TokenType> keywords;
@@ -39,21 +46,79 @@ class Scanner {
         keywords.put("while", WHILE);
     }
 
-    Scanner(String source) {
+    Scanner(RunContext context, String source) {
+        this.context = context;
+        this.source = source;
+        this.tokens = new TokenBuffer(source);
+        this.end = source.length();
+        this.errorLines = null;
+        this.errorMessages = null;
+    }
+
+    // scans the tokens starting in [from, to) of source, with lines counted from 1 at from.
+    // the last token may run past to (a string or block comment)
+    Scanner(RunContext context, String source, int from, int to) {
+        this.context = context;
         this.source = source;
+        this.tokens = new TokenBuffer(source);
+        this.current = from;
+        this.end = to;
+        this.errorLines = new ArrayList<>();
+        this.errorMessages = new ArrayList<>();
     }
 
     // storing token
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        return scanBuffer().toList();
+    }
+
+    // scans into the compact buffer the Parser reads from
+    TokenBuffer scanBuffer() {
+        scanChunk();
+        tokens.add(EOF, source.length(), 0, line);
+        return tokens;
+    }
+
+    // scans up to the end of the range, without the EOF token
+    TokenBuffer scanChunk() {
+        while (current < end) {
             // we are at the beginning of the next lexeme.
             start = current;
             scanToken();
         }
-        tokens.add(new Token(EOF, "", null, line));
         return tokens;
     }
 
+    // index just past the last token scanned
+    int position() {
+        return current;
+    }
+
+    // line the scan ended on
+    int line() {
+        return line;
+    }
+
+    // reports the held errors of a chunk scan, shifting its lines to where the chunk starts
+    void reportErrors(int lineOffset) {
+        for (int i = 0; i < errorLines.size(); i++) {
+            if (errorLines.get(i) < 0) {
+                context.err.println(errorMessages.get(i));
+            } else {
+                context.error(errorLines.get(i) + lineOffset, errorMessages.get(i));
+            }
+        }
+    }
+
+    private void error(String message) {
+        if (errorLines == null) {
+            context.error(line, message);
+        } else {
+            errorLines.add(line);
+            errorMessages.add(message);
+        }
+    }
+
     // is the pointer at string end?  E.g: in "var ", checks if pointer is at 'r'
     private boolean isAtEnd() {
         return current >= source.length();
@@ -129,7 +194,13 @@ class Scanner {
                         }
                     }
                     catch (StringIndexOutOfBoundsException e) {
-                        System.err.println("> [Error: Multi-line comment wasn't bounded]!");
+                        // not a numbered error, kept in order with them
+                        if (errorLines == null) {
+                            context.err.println("> [Error: Multi-line comment wasn't bounded]!");
+                        } else {
+                            errorLines.add(-1);
+                            errorMessages.add("> [Error: Multi-line comment wasn't bounded]!");
+                        }
                     }
                 }               
                 else {
@@ -158,7 +229,7 @@ class Scanner {
                 }
                 else{
                     // if invalid character was present like @ for eg.
-                    Lox.error(line, "Unexpected character.");
+                    error("Unexpected character.");
                 }
                 break;
         }
@@ -186,7 +257,7 @@ class Scanner {
             while(isDigit(peek())) advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER); // literal value is parsed by the TokenBuffer when the token is handed out
     }
 
     // handle/consume string token
@@ -197,15 +268,14 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            error("Unterminated string.");
             return;
         }
 
         // The closing
         advance();
-        // Trimming the surrounding Quote
-        String value = source.substring(start + 1, current -1);
-        addToken(STRING, value);
+        // the TokenBuffer trims the surrounding quotes when it builds the literal
+        addToken(STRING);
     }
 
     // To check if the current character of operator matches with expected ones
@@ -248,12 +318,7 @@ class Scanner {
         return source.charAt(current - 1);
     }
 
-    private void addToken(TokenType type) {  
-        addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {// for output
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type) {  // for output
+        tokens.add(type, start, current - start, line);
     }
 }
\ No newline at end of file
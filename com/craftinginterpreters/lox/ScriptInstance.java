@@ -0,0 +1,63 @@
+// One execution of a PreparedScript: its own view of the globals, which the functions it calls may change, and
+// what it prints. An instance runs one call at a time; give each thread its own.
+//
+// Values cross over as: null <-> nil, Boolean <-> boolean, any Number -> number -> Double, String <-> string.
+// Other Lox values (functions, classes, instances) come back as opaque objects, which can be passed back in to
+// later calls on the same instance.
+
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+public final class ScriptInstance {
+    private final Interpreter interpreter;
+
+    ScriptInstance(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // calls the global function of that name and returns its result
+    public Object invoke(String function, Object... args) {
+        Object value;
+        try {
+            value = interpreter.globals.get(new Token(TokenType.IDENTIFIER, function, null, 0));
+        } catch (RuntimeError error) {
+            throw new LoxException("Undefined function '" + function + "'.", -1);
+        }
+        if (!(value instanceof LoxCallable)) throw new LoxException("'" + function + "' isn't a function.", -1);
+        LoxCallable callable = (LoxCallable) value;
+        if (callable.arity() != args.length) {
+            throw new LoxException("'" + function + "' expects " + callable.arity() + " arguments but got "
+                    + args.length + ".", -1);
+        }
+
+        Object[] arguments = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            arguments[i] = toLox(args[i]);
+        }
+        try {
+            return callable.call(interpreter, Arrays.asList(arguments));
+        } catch (RuntimeError error) {
+            throw new LoxException(error.getMessage(), error.token.line);
+        } catch (Natives.Failure error) {
+            throw new LoxException(error.getMessage(), -1);
+        } catch (StackOverflowError error) {
+            throw new LoxException("Stack overflow.", -1);
+        }
+    }
+
+    // back to the globals as the top level left them, forgetting what earlier calls changed
+    public void reset() {
+        interpreter.reset();
+    }
+
+    private static Object toLox(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Double || value instanceof String) {
+            return value;
+        }
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof CharSequence) return value.toString();
+        if (value instanceof LoxCallable || value instanceof LoxInstance) return value;
+        throw new IllegalArgumentException("Can't pass a " + value.getClass().getName() + " to Lox.");
+    }
+}
@@ -0,0 +1,205 @@
+// `jlox --serve [--host h] [--port n] script.jlox`: serves the script's handler functions over HTTP with the JDK's
+// com.sun.net.httpserver. The script runs once, registering its handlers with route(method, path, handler), and
+// the compiled Program and the globals it defined are then frozen into a Baseline. A request runs on a thread of
+// its own (see Threads) with an execution of the Baseline, so every request starts from the globals as the script
+// left them and doesn't see what other requests changed.
+//
+// A handler gets a Request instance with the fields method, path, query (nil without one) and body, and
+// header(name) for a request header (nil if it wasn't sent). What it returns is the response: nil is an empty 204,
+// an instance with a status field sets the status and takes its body (and type, the content type) from its other
+// fields, and any other value is a 200 with the value as text. A runtime error in a handler is a 500.
+
+package com.craftinginterpreters.lox;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class Server {
+    // every request starts from it, set once the script ran
+    private Baseline baseline;
+    // "METHOD /path" to handler
+    private final Map<String, LoxCallable> routes = new ConcurrentHashMap<>();
+    // the class of the request instances handlers get, without methods of its own
+    private final LoxClass requestClass = new LoxClass("Request", null, new HashMap<>());
+
+    // serves the script the arguments after --serve name until the process is killed, returning the exit status
+    // when it can't start
+    static int run(String[] args) throws IOException {
+        String host = "127.0.0.1";
+        int port = 8080;
+        String script = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--host") && i + 1 < args.length) {
+                host = args[++i];
+            } else if (arg.equals("--port") && i + 1 < args.length) {
+                try {
+                    port = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException error) {
+                    return usage();
+                }
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                return usage();
+            }
+        }
+        if (script == null) return usage();
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(Paths.get(script));
+        } catch (NoSuchFileException error) {
+            System.err.println("The given path: '" + script + "' was incorrect");
+            return 66;
+        }
+
+        // parsed, resolved and run once, the requests then share the program and its globals
+        RunContext context = new RunContext();
+        Program program = Program.compile(new String(bytes, Charset.defaultCharset()), context);
+        if (program == null) return 65;
+
+        Interpreter interpreter = new Interpreter(context, program);
+        Server server = new Server();
+        context.server = server;
+        interpreter.interpret(program);
+        if (context.hadRuntimeError) return 70;
+        if (server.routes.isEmpty()) {
+            System.err.println("'" + script + "' doesn't route any requests.");
+            return 65;
+        }
+        server.baseline = Baseline.freeze(program, interpreter);
+
+        HttpServer http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        http.setExecutor(Threads.perTask("lox-http"));
+        http.createContext("/", server::handle);
+        http.start();
+        System.err.println("Serving '" + script + "' on http://" + host + ":" + http.getAddress().getPort() + "/");
+        return 0;
+    }
+
+    private static int usage() {
+        System.out.println("Usage: jlox --serve [--host h] [--port n] script.jlox");
+        return 64;
+    }
+
+    // the route native
+    void route(Object method, Object path, Object handler) {
+        if (!(method instanceof String) || !(path instanceof String)) {
+            throw new Natives.Failure("A route needs a method and a path.");
+        }
+        if (!(handler instanceof LoxCallable) || ((LoxCallable) handler).arity() != 1) {
+            throw new Natives.Failure("A route handler takes one parameter, the request.");
+        }
+        routes.put(((String) method).toUpperCase() + " " + path, (LoxCallable) handler);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            LoxCallable handler = routes.get(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+            if (handler == null) {
+                respond(exchange, 404, "text/plain", "Not found\n");
+                return;
+            }
+
+            RunContext context = new RunContext(System.out, System.err);
+            Interpreter worker = baseline.interpreter(context);
+            Object value;
+            try {
+                value = handler.call(worker, Arrays.asList(request(exchange, context)));
+            } catch (RuntimeError error) {
+                context.runtimeError(error);
+                respond(exchange, 500, "text/plain", "Internal server error\n");
+                return;
+            } catch (Natives.Failure | StackOverflowError error) {
+                context.err.println("Handler failed: " + error.getMessage());
+                respond(exchange, 500, "text/plain", "Internal server error\n");
+                return;
+            }
+            respond(exchange, worker, value);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private LoxInstance request(HttpExchange exchange, RunContext context) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        LoxInstance request = new LoxInstance(requestClass, context);
+        request.set("method", exchange.getRequestMethod());
+        request.set("path", exchange.getRequestURI().getPath());
+        request.set("query", exchange.getRequestURI().getRawQuery());
+        request.set("body", body);
+        request.set("header", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object name = arguments.get(0);
+                return name instanceof String ? exchange.getRequestHeaders().getFirst((String) name) : null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+        return request;
+    }
+
+    private void respond(HttpExchange exchange, Interpreter worker, Object value) throws IOException {
+        if (value == null) {
+            exchange.sendResponseHeaders(204, -1);
+            return;
+        }
+        if (value instanceof LoxInstance) {
+            Map<String, Object> fields = worker.fields((LoxInstance) value);
+            Object status = fields.get("status");
+            if (status instanceof Double) {
+                if ((Double) status < 100 || (Double) status > 599 || (Double) status != Math.floor((Double) status)) {
+                    worker.context.err.println("Bad response status " + worker.stringify(status) + ".");
+                    respond(exchange, 500, "text/plain", "Internal server error\n");
+                    return;
+                }
+                Object type = fields.get("type");
+                Object body = fields.get("body");
+                respond(exchange, (int) (double) (Double) status,
+                        type instanceof String ? (String) type : "text/plain",
+                        body == null ? "" : worker.stringify(body));
+                return;
+            }
+        }
+        respond(exchange, 200, "text/plain", worker.stringify(value));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length == 0) return;
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+// What the front end computed for the nodes of a program, for the interpreter to look up by node: the Resolver's
+// scope depths and releases, the PartialEvaluator's constants and the instances the EscapeAnalysis replaced.
+
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class SideTables {
+    // concurrent, as a Pipeline resolves on another thread while the interpreter runs
+    private final Map<Expr, Integer> locals;
+    // variables that are dead once the given statement has run
+    private final Map<Stmt, List<String>> releases;
+    // calls the partial evaluator already computed, nil as NIL (a ConcurrentHashMap holds no nulls)
+    private final Map<Expr, Object> constants;
+    // vars whose instance is replaced by a local per field, and the gets and sets of those fields with their local
+    private final Map<Stmt.Var, EscapeAnalysis.Replacement> scalars;
+    private final Map<Expr, String> scalarFields;
+
+    private static final Object NIL = new Object();
+
+    SideTables() {
+        this(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(),
+                new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    }
+
+    private SideTables(Map<Expr, Integer> locals, Map<Stmt, List<String>> releases, Map<Expr, Object> constants,
+                       Map<Stmt.Var, EscapeAnalysis.Replacement> scalars, Map<Expr, String> scalarFields) {
+        this.locals = locals;
+        this.releases = releases;
+        this.constants = constants;
+        this.scalars = scalars;
+        this.scalarFields = scalarFields;
+    }
+
+    // an unmodifiable copy, safe to share between threads
+    SideTables freeze() {
+        return new SideTables(Collections.unmodifiableMap(new HashMap<>(locals)),
+                Collections.unmodifiableMap(new HashMap<>(releases)),
+                Collections.unmodifiableMap(new HashMap<>(constants)),
+                Collections.unmodifiableMap(new HashMap<>(scalars)),
+                Collections.unmodifiableMap(new HashMap<>(scalarFields)));
+    }
+
+    void addAll(SideTables other) {
+        locals.putAll(other.locals);
+        releases.putAll(other.releases);
+        constants.putAll(other.constants);
+        scalars.putAll(other.scalars);
+        scalarFields.putAll(other.scalarFields);
+    }
+
+    // store resolved local variable with how many scopes away
+    void resolve(Expr expr, int depth) {
+        locals.put(expr, depth);
+    }
+
+    void release(Stmt stmt, List<String> names) {
+        releases.put(stmt, names);
+    }
+
+    void fold(Expr.Call expr, Object value) {
+        constants.put(expr, value == null ? NIL : value);
+    }
+
+    void replace(Stmt.Var stmt, EscapeAnalysis.Replacement replacement) {
+        scalars.put(stmt, replacement);
+    }
+
+    void replaceField(Expr access, String local) {
+        scalarFields.put(access, local);
+    }
+
+    // whether the variable resolved to a local scope (global otherwise)
+    boolean isLocal(Expr expr) {
+        return locals.containsKey(expr);
+    }
+
+    // scope distance of a local variable, null for a global one
+    Integer depth(Expr expr) {
+        return locals.get(expr);
+    }
+
+    List<String> released(Stmt stmt) {
+        return releases.get(stmt);
+    }
+
+    boolean hasConstants() {
+        return !constants.isEmpty();
+    }
+
+    boolean isConstant(Expr expr) {
+        return constants.containsKey(expr);
+    }
+
+    Object constant(Expr expr) {
+        Object value = constants.get(expr);
+        return value == NIL ? null : value;
+    }
+
+    boolean hasScalars() {
+        return !scalars.isEmpty();
+    }
+
+    // how the var makes the fields of its replaced instance, null when it holds a real one
+    EscapeAnalysis.Replacement replacement(Stmt.Var stmt) {
+        return scalars.get(stmt);
+    }
+
+    // the local standing in for the field a get or set accesses, null for a field of a real instance
+    String scalarField(Expr access) {
+        return scalarFields.get(access);
+    }
+
+    Map<Expr, Integer> locals() {
+        return Collections.unmodifiableMap(locals);
+    }
+
+    Map<Stmt, List<String>> releases() {
+        return Collections.unmodifiableMap(releases);
+    }
+
+    // with nil as null
+    Map<Expr, Object> constants() {
+        Map<Expr, Object> values = new HashMap<>();
+        for (Map.Entry<Expr, Object> constant : constants.entrySet()) {
+            values.put(constant.getKey(), constant.getValue() == NIL ? null : constant.getValue());
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    Map<Stmt.Var, EscapeAnalysis.Replacement> scalars() {
+        return Collections.unmodifiableMap(scalars);
+    }
+
+    Map<Expr, String> scalarFields() {
+        return Collections.unmodifiableMap(scalarFields);
+    }
+}
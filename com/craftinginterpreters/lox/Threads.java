@@ -0,0 +1,22 @@
+// Executors that start a thread per task: virtual threads where the JDK has them, otherwise daemon platform
+// threads. Either way an idle executor doesn't keep the process alive.
+
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class Threads {
+    // Executors.newVirtualThreadPerTaskExecutor is looked up reflectively, so the sources still build on JDK 17
+    static ExecutorService perTask(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException error) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// Compact token store filled by the Scanner: one entry per token in parallel primitive arrays instead of
+// one Token object each. Token objects (with interned lexemes) are only created when the Parser asks for them,
+// so the tokens the AST doesn't keep never outlive parsing. The buffer is read through cursors, which lets the
+// parser skip a function body now and come back to it later.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+
+    // one String per distinct lexeme (concurrent, as lazy bodies may be parsed from several tasks at once)
+    private final Map<String, String> lexemes = new ConcurrentHashMap<>();
+
+    TokenBuffer(String source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    // appends the tokens of a buffer over the same source, shifting their lines
+    void addAll(TokenBuffer chunk, int lineOffset) {
+        int needed = count + chunk.count;
+        if (needed > types.length) {
+            int capacity = Math.max(needed, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        System.arraycopy(chunk.types, 0, types, count, chunk.count);
+        System.arraycopy(chunk.starts, 0, starts, count, chunk.count);
+        System.arraycopy(chunk.lengths, 0, lengths, count, chunk.count);
+        for (int i = 0; i < chunk.count; i++) {
+            lines[count + i] = chunk.lines[i] + lineOffset;
+        }
+        count = needed;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        String text = source.substring(starts[index], starts[index] + lengths[index]);
+        String interned = lexemes.putIfAbsent(text, text);
+        return interned == null ? text : interned;
+    }
+
+    // number and string literals are rebuilt from the source text
+    Object literal(int index) {
+        switch (type(index)) {
+            case NUMBER:
+                return Double.parseDouble(lexeme(index));
+            case STRING:
+                return source.substring(starts[index] + 1, starts[index] + lengths[index] - 1);
+            default:
+                return null;
+        }
+    }
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), lines[index]);
+    }
+
+    // a reader starting at the given token
+    Cursor cursor(int position) {
+        return new Cursor(position);
+    }
+
+    // index of the '}' closing the block whose first token is at start, -1 if it is never closed
+    int matchingBrace(int start) {
+        int depth = 1;
+        for (int i = start; i < count; i++) {
+            if (type(i) == TokenType.LEFT_BRACE) depth++;
+            if (type(i) == TokenType.RIGHT_BRACE && --depth == 0) return i;
+        }
+        return -1;
+    }
+
+    class Cursor implements TokenSource {
+        // index of the token the next call to nextToken() returns
+        private int position;
+
+        private Cursor(int position) {
+            this.position = position;
+        }
+
+        int position() {
+            return position;
+        }
+
+        void seek(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public Token nextToken() {
+            // the last entry is EOF, which is handed out again once reached
+            Token token = token(position);
+            if (position < count - 1) position++;
+            return token;
+        }
+    }
+
+    List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+}
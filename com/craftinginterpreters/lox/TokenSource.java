@@ -0,0 +1,6 @@
+package com.craftinginterpreters.lox;
+
+// hands tokens to the Parser one at a time, ending with (and then repeating) the EOF token
+interface TokenSource {
+    Token nextToken();
+}
@@ -0,0 +1,251 @@
+// Drops top-level function and class declarations that nothing in the program can reach, before they are
+// resolved and turned into LoxFunction/LoxClass objects in globals.
+
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class TreeShaker implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // names referenced by live code whose declarations haven't been visited yet
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final Set<String> referenced = new HashSet<>();
+    private final List<Stmt> removed = new ArrayList<>();
+
+    // returns the statements to run, keeping every statement that isn't a global fun/class declaration as a root,
+    // along with the declarations of the entry points (functions the host calls after the script ran)
+    List<Stmt> shake(List<Stmt> statements, String... entryPoints) {
+        for (String name : entryPoints) {
+            if (referenced.add(name)) pending.push(name);
+        }
+        Map<String, List<Stmt>> declarations = new HashMap<>();
+        for (Stmt statement : statements) {
+            String name = declaredName(statement);
+            if (name != null) {
+                declarations.computeIfAbsent(name, k -> new ArrayList<>()).add(statement);
+            } else {
+                scan(statement);
+            }
+        }
+
+        // a reachable name keeps every declaration of that name alive (later ones redefine earlier ones)
+        Set<Stmt> live = new HashSet<>();
+        while (!pending.isEmpty()) {
+            List<Stmt> declared = declarations.get(pending.pop());
+            if (declared == null) continue;
+            for (Stmt declaration : declared) {
+                if (live.add(declaration)) scan(declaration);
+            }
+        }
+
+        List<Stmt> kept = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (declaredName(statement) == null || live.contains(statement)) {
+                kept.add(statement);
+            } else {
+                removed.add(statement);
+            }
+        }
+        return kept;
+    }
+
+    // declarations dropped by the last shake()
+    List<Stmt> removed() {
+        return removed;
+    }
+
+    // describes a removed declaration for reporting
+    static String describe(Stmt statement) {
+        if (statement instanceof Stmt.Function) {
+            Token name = ((Stmt.Function) statement).name;
+            return "fun " + name.lexeme + " [line " + name.line + "]";
+        }
+        Token name = ((Stmt.Class) statement).name;
+        return "class " + name.lexeme + " [line " + name.line + "]";
+    }
+
+    private static String declaredName(Stmt statement) {
+        if (statement instanceof Stmt.Function) return ((Stmt.Function) statement).name.lexeme;
+        if (statement instanceof Stmt.Class) return ((Stmt.Class) statement).name.lexeme;
+        return null;
+    }
+
+    private void reference(Token name) {
+        if (referenced.add(name.lexeme)) pending.push(name.lexeme);
+    }
+
+    private void scan(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void scan(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void scan(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            scan(statement);
+        }
+    }
+
+    // a body that hasn't been parsed yet references every identifier written in it
+    private void scanBody(List<Stmt> body) {
+        if (body instanceof LazyBody && !((LazyBody) body).isParsed()) {
+            for (String name : ((LazyBody) body).identifiers()) {
+                if (referenced.add(name)) pending.push(name);
+            }
+            return;
+        }
+        scan(body);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scan(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superclass != null) reference(stmt.superclass.name);
+        for (Stmt.Function method : stmt.methods) {
+            scanBody(method.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        scanBody(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        scan(stmt.condition);
+        scan(stmt.thenBranch);
+        scan(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        scan(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        scan(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        scan(stmt.condition);
+        scan(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        reference(expr.name);
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        scan(expr.condition);
+        scan(expr.trueCase);
+        scan(expr.falseCase);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        scan(expr.callee);
+        for (Expr argument : expr.arguments) {
+            scan(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        scan(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        scan(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        scan(expr.object);
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        reference(expr.name);
+        return null;
+    }
+}
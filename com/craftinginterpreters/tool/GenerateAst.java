@@ -14,7 +14,7 @@ public class GenerateAst {
         }
         String outputDir = args[0];
 
-        defineAst(outputDir, "Expr", Arrays.asList(
+        List<String> exprTypes = Arrays.asList(
                 "Assign   : Token name, Expr value",
                 "Binary   : Expr left, Token operator, Expr right",
                 "Ternary  : Expr condition, Token questionMark, Stmt trueCase," + " Token colon, Stmt falseCase",
@@ -27,10 +27,11 @@ public class GenerateAst {
                 "Super    : Token keyword, Token method",
                 "This     : Token keyword",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"));
+                "Variable : Token name");
+        defineAst(outputDir, "Expr", exprTypes);
 
         // Statement File
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        List<String> stmtTypes = Arrays.asList(
                 "Block      : List<Stmt> statements",
                 "Class      : Token name, Expr.Variable superclass," + " List<Stmt.Function> methods",
                 "Expression : Expr expression, boolean display",
@@ -39,7 +40,11 @@ public class GenerateAst {
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
                 "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body"));
+                "While      : Expr condition, Stmt body");
+        defineAst(outputDir, "Stmt", stmtTypes);
+
+        // flat encoding of both trees
+        defineArena(outputDir, exprTypes, stmtTypes);
     }
 
     private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
@@ -108,4 +113,351 @@ public class GenerateAst {
         }
         writer.println("    }");
     }
+
+    // generates AstArena: every node becomes its kind followed by one int per field in a single int[],
+    // with encoder/decoder between the two forms
+    private static void defineArena(String outputDir, List<String> exprTypes, List<String> stmtTypes) throws IOException {
+        String path = outputDir + "/AstArena.java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println();
+        writer.println("import java.util.ArrayList;");
+        writer.println("import java.util.Arrays;");
+        writer.println("import java.util.HashMap;");
+        writer.println("import java.util.IdentityHashMap;");
+        writer.println("import java.util.List;");
+        writer.println("import java.util.Map;");
+        writer.println();
+        writer.println("// flat form of a program: node kinds, child indices and constants in primitive arrays");
+        writer.println("final class AstArena {");
+
+        // node kinds and field positions
+        int kind = 0;
+        for (List<String> types : Arrays.asList(exprTypes, stmtTypes)) {
+            for (String type : types) {
+                String className = type.split(":")[0].trim();
+                writer.println("    static final int " + constantName(className) + " = " + kind++ + ";");
+            }
+        }
+        writer.println();
+        for (List<String> types : Arrays.asList(exprTypes, stmtTypes)) {
+            for (String type : types) {
+                String className = type.split(":")[0].trim();
+                String[] fields = type.split(":")[1].trim().split(", ");
+                for (int i = 0; i < fields.length; i++) {
+                    String name = fields[i].split(" ")[1];
+                    writer.println("    static final int " + constantName(className) + "_" + constantName(name) + " = " + i + ";");
+                }
+            }
+        }
+
+        writer.println();
+        writer.println("    // kind at nodes[node], then the fields; children, tokens, lists and constants are indices");
+        writer.println("    final int[] nodes;");
+        writer.println("    // length followed by the elements");
+        writer.println("    final int[] lists;");
+        writer.println("    final byte[] tokenTypes;");
+        writer.println("    final int[] tokenLexemes;");
+        writer.println("    final int[] tokenLiterals;");
+        writer.println("    final int[] tokenLines;");
+        writer.println("    final String[] strings;");
+        writer.println("    final Object[] constants;");
+        writer.println("    // list of the top-level statements");
+        writer.println("    final int program;");
+        writer.println();
+        writer.println("    AstArena(int[] nodes, int[] lists, byte[] tokenTypes, int[] tokenLexemes, int[] tokenLiterals,");
+        writer.println("            int[] tokenLines, String[] strings, Object[] constants, int program) {");
+        for (String field : new String[] {"nodes", "lists", "tokenTypes", "tokenLexemes", "tokenLiterals", "tokenLines", "strings", "constants", "program"}) {
+            writer.println("        this." + field + " = " + field + ";");
+        }
+        writer.println("    }");
+        writer.println();
+        writer.println("    int kind(int node) {");
+        writer.println("        return nodes[node];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    int field(int node, int field) {");
+        writer.println("        return nodes[node + 1 + field];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    int listSize(int list) {");
+        writer.println("        return lists[list];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    int listItem(int list, int index) {");
+        writer.println("        return lists[list + 1 + index];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    String lexeme(int token) {");
+        writer.println("        return strings[tokenLexemes[token]];");
+        writer.println("    }");
+        writer.println();
+        writer.println("    Token token(int token) {");
+        writer.println("        if (token < 0) return null;");
+        writer.println("        return new Token(TokenType.values()[tokenTypes[token]], lexeme(token), constants[tokenLiterals[token]], tokenLines[token]);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    static AstArena encode(List<Stmt> statements) {");
+        writer.println("        return new Encoder().encode(statements);");
+        writer.println("    }");
+        writer.println();
+        writer.println("    List<Stmt> decode() {");
+        writer.println("        return new Decoder(this).decode();");
+        writer.println("    }");
+
+        defineEncoder(writer, exprTypes, stmtTypes);
+        defineDecoder(writer, exprTypes, stmtTypes);
+
+        writer.println("}");
+        writer.close();
+    }
+
+    private static void defineEncoder(PrintWriter writer, List<String> exprTypes, List<String> stmtTypes) {
+        writer.println();
+        writer.println("    static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+        writer.println("        private int[] nodes = new int[1024];");
+        writer.println("        private int nodeCount = 0;");
+        writer.println("        private int[] lists = new int[256];");
+        writer.println("        private int listCount = 0;");
+        writer.println("        private final List<Token> tokens = new ArrayList<>();");
+        writer.println("        private final Map<Token, Integer> tokenIndex = new IdentityHashMap<>();");
+        writer.println("        private final List<String> strings = new ArrayList<>();");
+        writer.println("        private final Map<String, Integer> stringIndex = new HashMap<>();");
+        writer.println("        private final List<Object> constants = new ArrayList<>();");
+        writer.println("        private final Map<Object, Integer> constantIndex = new HashMap<>();");
+        writer.println("        // offset of every encoded node, so side tables keyed by node can be carried over");
+        writer.println("        private final Map<Object, Integer> offsets = new IdentityHashMap<>();");
+        writer.println();
+        writer.println("        Encoder() {");
+        writer.println("            // constant 0 is nil");
+        writer.println("            constants.add(null);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        AstArena encode(List<Stmt> statements) {");
+        writer.println("            int program = stmts(statements);");
+        writer.println("            byte[] tokenTypes = new byte[tokens.size()];");
+        writer.println("            int[] tokenLexemes = new int[tokens.size()];");
+        writer.println("            int[] tokenLiterals = new int[tokens.size()];");
+        writer.println("            int[] tokenLines = new int[tokens.size()];");
+        writer.println("            for (int i = 0; i < tokens.size(); i++) {");
+        writer.println("                Token token = tokens.get(i);");
+        writer.println("                tokenTypes[i] = (byte) token.type.ordinal();");
+        writer.println("                tokenLexemes[i] = string(token.lexeme);");
+        writer.println("                tokenLiterals[i] = constant(token.literal);");
+        writer.println("                tokenLines[i] = token.line;");
+        writer.println("            }");
+        writer.println("            return new AstArena(Arrays.copyOf(nodes, nodeCount), Arrays.copyOf(lists, listCount), tokenTypes,");
+        writer.println("                    tokenLexemes, tokenLiterals, tokenLines, strings.toArray(new String[0]), constants.toArray(), program);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        // offset of an encoded Expr/Stmt, -1 if it wasn't part of the program");
+        writer.println("        int offsetOf(Object node) {");
+        writer.println("            Integer offset = offsets.get(node);");
+        writer.println("            return offset == null ? -1 : offset;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int add(Object node, int kind, int... fields) {");
+        writer.println("            while (nodeCount + fields.length + 1 > nodes.length) nodes = Arrays.copyOf(nodes, nodes.length * 2);");
+        writer.println("            int offset = nodeCount;");
+        writer.println("            nodes[nodeCount++] = kind;");
+        writer.println("            for (int field : fields) nodes[nodeCount++] = field;");
+        writer.println("            offsets.put(node, offset);");
+        writer.println("            return offset;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int list(int[] items) {");
+        writer.println("            while (listCount + items.length + 1 > lists.length) lists = Arrays.copyOf(lists, lists.length * 2);");
+        writer.println("            int offset = listCount;");
+        writer.println("            lists[listCount++] = items.length;");
+        writer.println("            for (int item : items) lists[listCount++] = item;");
+        writer.println("            return offset;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int expr(Expr expr) {");
+        writer.println("            return expr == null ? -1 : expr.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int stmt(Stmt stmt) {");
+        writer.println("            return stmt == null ? -1 : stmt.accept(this);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int exprs(List<Expr> exprs) {");
+        writer.println("            int[] items = new int[exprs.size()];");
+        writer.println("            for (int i = 0; i < items.length; i++) items[i] = expr(exprs.get(i));");
+        writer.println("            return list(items);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int stmts(List<? extends Stmt> stmts) {");
+        writer.println("            int[] items = new int[stmts.size()];");
+        writer.println("            for (int i = 0; i < items.length; i++) items[i] = stmt(stmts.get(i));");
+        writer.println("            return list(items);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int tokens(List<Token> tokens) {");
+        writer.println("            int[] items = new int[tokens.size()];");
+        writer.println("            for (int i = 0; i < items.length; i++) items[i] = token(tokens.get(i));");
+        writer.println("            return list(items);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int token(Token token) {");
+        writer.println("            if (token == null) return -1;");
+        writer.println("            return tokenIndex.computeIfAbsent(token, t -> {");
+        writer.println("                tokens.add(t);");
+        writer.println("                return tokens.size() - 1;");
+        writer.println("            });");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private int string(String string) {");
+        writer.println("            return stringIndex.computeIfAbsent(string, s -> {");
+        writer.println("                strings.add(s);");
+        writer.println("                return strings.size() - 1;");
+        writer.println("            });");
+        writer.println("        }");
+        writer.println();
+        writer.println("        // literal values: nil, booleans, numbers and strings");
+        writer.println("        private int constant(Object value) {");
+        writer.println("            if (value == null) return 0;");
+        writer.println("            return constantIndex.computeIfAbsent(value, v -> {");
+        writer.println("                constants.add(v);");
+        writer.println("                return constants.size() - 1;");
+        writer.println("            });");
+        writer.println("        }");
+
+        for (String baseName : new String[] {"Expr", "Stmt"}) {
+            for (String type : baseName.equals("Expr") ? exprTypes : stmtTypes) {
+                String className = type.split(":")[0].trim();
+                String[] fields = type.split(":")[1].trim().split(", ");
+                writer.println();
+                writer.println("        @Override");
+                writer.println("        public Integer visit" + className + baseName + "(" + baseName + "." + className + " node) {");
+                StringBuilder encoded = new StringBuilder();
+                for (String field : fields) {
+                    String fieldType = field.split(" ")[0];
+                    String name = field.split(" ")[1];
+                    encoded.append(", ").append(encodeField(fieldType, "node." + name));
+                }
+                writer.println("            return add(node, " + constantName(className) + encoded + ");");
+                writer.println("        }");
+            }
+        }
+        writer.println("    }");
+    }
+
+    private static void defineDecoder(PrintWriter writer, List<String> exprTypes, List<String> stmtTypes) {
+        writer.println();
+        writer.println("    static final class Decoder {");
+        writer.println("        private final AstArena arena;");
+        writer.println("        // rebuilt nodes and tokens by offset, so shared tokens stay shared");
+        writer.println("        private final Object[] decoded;");
+        writer.println("        private final Token[] tokens;");
+        writer.println();
+        writer.println("        Decoder(AstArena arena) {");
+        writer.println("            this.arena = arena;");
+        writer.println("            this.decoded = new Object[arena.nodes.length];");
+        writer.println("            this.tokens = new Token[arena.tokenTypes.length];");
+        writer.println("        }");
+        writer.println();
+        writer.println("        List<Stmt> decode() {");
+        writer.println("            return stmts(arena.program);");
+        writer.println("        }");
+        writer.println();
+        writer.println("        // the Expr/Stmt rebuilt for the node at the given offset");
+        writer.println("        Object node(int offset) {");
+        writer.println("            return decoded[offset];");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private Token token(int token) {");
+        writer.println("            if (token < 0) return null;");
+        writer.println("            if (tokens[token] == null) tokens[token] = arena.token(token);");
+        writer.println("            return tokens[token];");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private List<Expr> exprs(int list) {");
+        writer.println("            List<Expr> items = new ArrayList<>(arena.listSize(list));");
+        writer.println("            for (int i = 0; i < arena.listSize(list); i++) items.add(expr(arena.listItem(list, i)));");
+        writer.println("            return items;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @SuppressWarnings(\"unchecked\")");
+        writer.println("        private <T extends Stmt> List<T> stmts(int list) {");
+        writer.println("            List<T> items = new ArrayList<>(arena.listSize(list));");
+        writer.println("            for (int i = 0; i < arena.listSize(list); i++) items.add((T) stmt(arena.listItem(list, i)));");
+        writer.println("            return items;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private List<Token> tokens(int list) {");
+        writer.println("            List<Token> items = new ArrayList<>(arena.listSize(list));");
+        writer.println("            for (int i = 0; i < arena.listSize(list); i++) items.add(token(arena.listItem(list, i)));");
+        writer.println("            return items;");
+        writer.println("        }");
+
+        for (String baseName : new String[] {"Expr", "Stmt"}) {
+            List<String> types = baseName.equals("Expr") ? exprTypes : stmtTypes;
+            writer.println();
+            writer.println("        private " + baseName + " " + baseName.toLowerCase() + "(int node) {");
+            writer.println("            if (node < 0) return null;");
+            writer.println("            " + baseName + " decoded;");
+            writer.println("            switch (arena.kind(node)) {");
+            for (String type : types) {
+                String className = type.split(":")[0].trim();
+                String[] fields = type.split(":")[1].trim().split(", ");
+                StringBuilder arguments = new StringBuilder();
+                for (int i = 0; i < fields.length; i++) {
+                    if (i > 0) arguments.append(", ");
+                    String fieldType = fields[i].split(" ")[0];
+                    arguments.append(decodeField(fieldType, "arena.field(node, " + i + ")"));
+                }
+                writer.println("                case " + constantName(className) + ":");
+                writer.println("                    decoded = new " + baseName + "." + className + "(" + arguments + ");");
+                writer.println("                    break;");
+            }
+            writer.println("                default:");
+            writer.println("                    throw new IllegalStateException(\"Not a " + baseName + " node: \" + node);");
+            writer.println("            }");
+            writer.println("            this.decoded[node] = decoded;");
+            writer.println("            return decoded;");
+            writer.println("        }");
+        }
+        writer.println("    }");
+    }
+
+    private static String encodeField(String type, String value) {
+        switch (type) {
+            case "Token": return "token(" + value + ")";
+            case "Expr":
+            case "Expr.Variable": return "expr(" + value + ")";
+            case "Stmt":
+            case "Stmt.Function": return "stmt(" + value + ")";
+            case "List<Expr>": return "exprs(" + value + ")";
+            case "List<Stmt>":
+            case "List<Stmt.Function>": return "stmts(" + value + ")";
+            case "List<Token>": return "tokens(" + value + ")";
+            case "Object": return "constant(" + value + ")";
+            case "boolean": return value + " ? 1 : 0";
+            default: throw new IllegalArgumentException("No flat encoding for " + type);
+        }
+    }
+
+    private static String decodeField(String type, String value) {
+        switch (type) {
+            case "Token": return "token(" + value + ")";
+            case "Expr": return "expr(" + value + ")";
+            case "Expr.Variable": return "(Expr.Variable) expr(" + value + ")";
+            case "Stmt": return "stmt(" + value + ")";
+            case "Stmt.Function": return "(Stmt.Function) stmt(" + value + ")";
+            case "List<Expr>": return "exprs(" + value + ")";
+            case "List<Stmt>":
+            case "List<Stmt.Function>": return "stmts(" + value + ")";
+            case "List<Token>": return "tokens(" + value + ")";
+            case "Object": return "arena.constants[" + value + "]";
+            case "boolean": return value + " != 0";
+            default: throw new IllegalArgumentException("No flat encoding for " + type);
+        }
+    }
+
+    // thenBranch -> THEN_BRANCH
+    private static String constantName(String name) {
+        return name.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
 }
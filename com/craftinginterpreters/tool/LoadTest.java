@@ -0,0 +1,79 @@
+package com.craftinginterpreters.tool;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Closed-loop load test of an HTTP endpoint: a number of clients each send a request, wait for the response and
+// send the next one, for a number of seconds after a warm-up. Reports the throughput and the latency percentiles.
+public class LoadTest {
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 4) {
+            System.err.println("Usage: LoadTest <url> <clients> <warmup seconds> <seconds>");
+            System.exit(64);
+        }
+
+        URI url = URI.create(args[0]);
+        int clients = Integer.parseInt(args[1]);
+        long warmup = (long) (Double.parseDouble(args[2]) * 1e9);
+        long duration = (long) (Double.parseDouble(args[3]) * 1e9);
+
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(url).GET().build();
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmup;
+        long end = measureFrom + duration;
+        List<long[]> latencies = new ArrayList<>();
+        int[] errors = new int[clients];
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            long[][] own = { new long[1024] };
+            int[] count = { 0 };
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() >= 400) errors[client]++;
+                    } catch (IOException | InterruptedException error) {
+                        errors[client]++;
+                        continue;
+                    }
+                    if (sent < measureFrom) continue;
+                    if (count[0] == own[0].length) own[0] = Arrays.copyOf(own[0], count[0] * 2);
+                    own[0][count[0]++] = System.nanoTime() - sent;
+                }
+                synchronized (latencies) {
+                    latencies.add(Arrays.copyOf(own[0], count[0]));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        int failed = Arrays.stream(errors).sum();
+        if (all.length == 0) {
+            System.err.println("No successful requests (" + failed + " errors).");
+            System.exit(1);
+        }
+        System.out.printf("%d requests in %.1f s: %.0f requests/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d errors%n",
+                all.length, duration / 1e9, all.length / (duration / 1e9),
+                percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e6, failed);
+    }
+
+    // in milliseconds, nearest rank
+    private static double percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, rank)] / 1e6;
+    }
+}
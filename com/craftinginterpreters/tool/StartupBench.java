@@ -0,0 +1,50 @@
+package com.craftinginterpreters.tool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+// Measures time to first output: starts each command (through sh -c) a number of times and
+// reports how long it takes until the first line shows up on its stdout.
+public class StartupBench {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3 || args.length % 2 == 0) {
+            System.err.println("Usage: StartupBench <runs> <label> <command> [<label> <command> ...]");
+            System.exit(64);
+        }
+
+        int runs = Integer.parseInt(args[0]);
+        for (int i = 1; i < args.length; i += 2) {
+            // one untimed run, to warm the OS file cache
+            firstOutput(args[i + 1]);
+
+            long[] times = new long[runs];
+            for (int run = 0; run < runs; run++) {
+                times[run] = firstOutput(args[i + 1]);
+            }
+            Arrays.sort(times);
+            System.out.printf("%-8s median %4d ms, min %4d ms over %d runs%n",
+                    args[i], times[runs / 2] / 1_000_000, times[0] / 1_000_000, runs);
+        }
+    }
+
+    // nanoseconds until the command printed its first line
+    private static long firstOutput(String command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder("sh", "-c", command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            if (output.readLine() == null) {
+                throw new IOException("No output from: " + command);
+            }
+            long elapsed = System.nanoTime() - start;
+            while (output.readLine() != null) {
+                // let it finish
+            }
+            process.waitFor();
+            return elapsed;
+        }
+    }
+}